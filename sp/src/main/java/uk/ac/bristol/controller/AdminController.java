@@ -6,9 +6,14 @@ import uk.ac.bristol.exception.SpExceptions;
 import uk.ac.bristol.pojo.AccessControlGroup;
 import uk.ac.bristol.pojo.FilterDTO;
 import uk.ac.bristol.pojo.Template;
+import uk.ac.bristol.schedule.ScheduledMetOfficeWarningsCrawler;
 import uk.ac.bristol.service.*;
 import uk.ac.bristol.util.QueryTool;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 
@@ -22,13 +27,21 @@ public class AdminController {
     private final ContactService contactService;
     private final UserService userService;
     private final AssetService assetService;
+    private final ScheduledMetOfficeWarningsCrawler crawler;
+    private final FeedArchiveService feedArchiveService;
+    private final ReplayService replayService;
+    private final EmailOutboxService emailOutboxService;
 
-    public AdminController(MetaDataService metaDataService, AccessControlService accessControlService, ContactService contactService, UserService userService, AssetService assetService) {
+    public AdminController(MetaDataService metaDataService, AccessControlService accessControlService, ContactService contactService, UserService userService, AssetService assetService, ScheduledMetOfficeWarningsCrawler crawler, FeedArchiveService feedArchiveService, ReplayService replayService, EmailOutboxService emailOutboxService) {
         this.metaDataService = metaDataService;
         this.accessControlService = accessControlService;
         this.contactService = contactService;
         this.userService = userService;
         this.assetService = assetService;
+        this.crawler = crawler;
+        this.feedArchiveService = feedArchiveService;
+        this.replayService = replayService;
+        this.emailOutboxService = emailOutboxService;
     }
 
     @GetMapping("/metadata")
@@ -41,6 +54,69 @@ public class AdminController {
         return new ResponseBody(Code.SELECT_OK, metaDataService.getMetaDataByTableName(tableName));
     }
 
+    @GetMapping("/crawler")
+    public ResponseBody getCrawlerStatistics() {
+        return new ResponseBody(Code.SELECT_OK, crawler.getCrawlerStatistics());
+    }
+
+    @GetMapping("/crawler/archive")
+    public ResponseBody getArchivedFetches(@RequestParam(required = false) Long from,
+                                           @RequestParam(required = false) Long to,
+                                           @RequestParam(required = false) Integer limit) {
+        FilterDTO filter = new FilterDTO(limit, null);
+        String message = QueryTool.formatPaginationLimit(filter);
+        return new ResponseBody(Code.SELECT_OK, feedArchiveService.getFetches(
+                from == null ? null : Instant.ofEpochMilli(from),
+                to == null ? null : Instant.ofEpochMilli(to),
+                filter.getLimit()
+        ), message);
+    }
+
+    @GetMapping("/crawler/archive/{hash}")
+    public void getArchivedPayload(HttpServletResponse response, @PathVariable String hash) throws IOException {
+        try (InputStream in = feedArchiveService.openPayload(hash)) {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            in.transferTo(response.getOutputStream());
+        }
+    }
+
+    @GetMapping("/crawler/replay")
+    public ResponseBody getReplayReport() {
+        return new ResponseBody(Code.SELECT_OK, replayService.getReplayReport());
+    }
+
+    /**
+     * Replays the archived feeds, or the raw_*.json files in the given directory, through the ingest pipeline.
+     * A speedup of 0 or less replays as fast as possible, notifications go to the local sink.
+     */
+    @PostMapping("/crawler/replay")
+    public ResponseBody startReplay(@RequestBody Map<String, Object> body) {
+        Object from = body.get("from");
+        Object to = body.get("to");
+        Object speedup = body.get("speedup");
+        return new ResponseBody(Code.SUCCESS, replayService.startReplay(
+                (String) body.get("directory"),
+                from == null ? null : Instant.ofEpochMilli(((Number) from).longValue()),
+                to == null ? null : Instant.ofEpochMilli(((Number) to).longValue()),
+                speedup == null ? null : ((Number) speedup).doubleValue()));
+    }
+
+    @DeleteMapping("/crawler/replay")
+    public ResponseBody stopReplay() {
+        return new ResponseBody(Code.SUCCESS, replayService.stopReplay());
+    }
+
+    @GetMapping("/email/outbox")
+    public ResponseBody getEmailOutboxStatistics() {
+        return new ResponseBody(Code.SELECT_OK, emailOutboxService.getStatistics());
+    }
+
+    @PutMapping("/email/outbox/dead")
+    public ResponseBody requeueDeadEmails() {
+        return new ResponseBody(Code.UPDATE_OK, emailOutboxService.requeueDeadEmails());
+    }
+
     @GetMapping("/template")
     public ResponseBody getAllTemplates(@RequestParam(required = false) List<String> orderList,
                                         @RequestParam(required = false) Integer limit,
@@ -68,6 +144,11 @@ public class AdminController {
         ), message);
     }
 
+    @GetMapping("/template/cache")
+    public ResponseBody getTemplateCacheStatistics() {
+        return new ResponseBody(Code.SELECT_OK, contactService.getNotificationTemplateCacheStatistics());
+    }
+
     @GetMapping("/template/type")
     public ResponseBody getTemplateByTypes(@RequestParam(value = "assetTypeId", required = true) String assetTypeId,
                                            @RequestParam(value = "warningType", required = true) String warningType,
@@ -203,6 +284,11 @@ public class AdminController {
         return new ResponseBody(Code.SELECT_OK, assetService.groupAssetLocationByRegion(null));
     }
 
+    @PutMapping("/dashboard/assets/region")
+    public ResponseBody updateAssetRegions() {
+        return new ResponseBody(Code.UPDATE_OK, assetService.updateAssetCentroidsAndRegions());
+    }
+
     @GetMapping("/dashboard/login")
     public ResponseBody getLoginCount() {
         return new ResponseBody(Code.SELECT_OK, userService.getLoginCount());
@@ -139,6 +139,15 @@ public class NotificationController {
         ), message);
     }
 
+    /**
+     * Live warnings for map display. Resolution "coarse" (about 1 km) or "fine" (about 100 m) returns
+     * simplified areas, "full" the exact ones.
+     */
+    @GetMapping("/warning/map")
+    public ResponseBody getLiveWarningsForMap(@RequestParam(required = false, defaultValue = "coarse") String resolution) {
+        return new ResponseBody(Code.SELECT_OK, warningService.getLiveWarningsAtResolution(resolution));
+    }
+
     @PostSearchEndpoint
     @PostMapping("/warning/search")
     public ResponseBody getAllLiveWarnings(@RequestBody FilterDTO filter) {
@@ -0,0 +1,48 @@
+package uk.ac.bristol.controller;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import uk.ac.bristol.advice.UserIdentificationExecution;
+import uk.ac.bristol.advice.UserUID;
+import uk.ac.bristol.service.TileService;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+@RestController
+@RequestMapping("/api")
+@CrossOrigin
+public class TileController {
+
+    private static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
+    private final TileService tileService;
+
+    public TileController(TileService tileService) {
+        this.tileService = tileService;
+    }
+
+    @UserIdentificationExecution
+    @GetMapping("/user/uid/{uid}/tiles/{z}/{x}/{y}.mvt")
+    public ResponseEntity<byte[]> getMyTile(HttpServletResponse response,
+                                            HttpServletRequest request,
+                                            @UserUID @PathVariable String uid,
+                                            @PathVariable int z,
+                                            @PathVariable int x,
+                                            @PathVariable int y) {
+        return ResponseEntity.ok().contentType(MVT).body(tileService.getTile(z, x, y, uid));
+    }
+
+    @GetMapping("/admin/tiles/{z}/{x}/{y}.mvt")
+    public ResponseEntity<byte[]> getTile(@PathVariable int z,
+                                          @PathVariable int x,
+                                          @PathVariable int y) {
+        return ResponseEntity.ok().contentType(MVT).body(tileService.getTile(z, x, y, null));
+    }
+
+    @GetMapping("/admin/tiles/cache")
+    public ResponseBody getTileCacheStatistics() {
+        return new ResponseBody(Code.SELECT_OK, tileService.getTileCacheStatistics());
+    }
+}
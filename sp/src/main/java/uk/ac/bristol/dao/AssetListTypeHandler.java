@@ -0,0 +1,63 @@
+package uk.ac.bristol.dao;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.pojo.Asset;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Reads assets aggregated by the query into a json array, with the property names of {@link Asset} as keys.
+ * <p>
+ * Used where one row per owner is selected with {@code json_agg(json_build_object('id', asset_id, ...))} instead
+ * of one row per asset, the location is left out.
+ */
+public class AssetListTypeHandler extends BaseTypeHandler<List<Asset>> {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final TypeReference<List<Asset>> ASSETS = new TypeReference<>() {
+    };
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, List<Asset> parameter, JdbcType jdbcType) throws SQLException {
+        throw new SQLException("Assets are only read as json");
+    }
+
+    @Override
+    public List<Asset> getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return toAssets(rs.getString(columnName));
+    }
+
+    @Override
+    public List<Asset> getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return toAssets(rs.getString(columnIndex));
+    }
+
+    @Override
+    public List<Asset> getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return toAssets(cs.getString(columnIndex));
+    }
+
+    static List<Asset> toAssets(String json) {
+        if (json == null) {
+            return List.of();
+        }
+        try {
+            return objectMapper.readValue(json, ASSETS);
+        } catch (JsonProcessingException e) {
+            throw new SpExceptions.SystemException("Failed to read aggregated assets: " + e.getMessage(), e);
+        }
+    }
+}
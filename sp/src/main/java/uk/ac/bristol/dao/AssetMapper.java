@@ -2,6 +2,7 @@ package uk.ac.bristol.dao;
 
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.locationtech.jts.geom.Geometry;
 import uk.ac.bristol.pojo.Asset;
 import uk.ac.bristol.pojo.AssetType;
 import uk.ac.bristol.pojo.AssetWithWeatherWarnings;
@@ -34,7 +35,11 @@ public interface AssetMapper {
 
     int countAssetsWithWarnings(@Param("filterList") List<FilterItemDTO> filterList);
 
-    boolean testAssetLocationDiff(@Param("id") String assetId, @Param("locationAsJson") String locationAsJson);
+    List<Map<String, Object>> countAssetsGroupByRegion(@Param("filterList") List<FilterItemDTO> filterList);
+
+    Map<String, Object> updateAssetCentroidsAndRegions(@Param("afterRowId") Long afterRowId, @Param("limit") int limit);
+
+    boolean testAssetLocationDiff(@Param("id") String assetId, @Param("locationGeometry") Geometry locationGeometry);
 
     int insertAsset(Asset asset);
 
@@ -2,9 +2,12 @@ package uk.ac.bristol.dao;
 
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.locationtech.jts.geom.Geometry;
 import uk.ac.bristol.pojo.FilterItemDTO;
 import uk.ac.bristol.pojo.Template;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -45,6 +48,19 @@ public interface ContactMapper {
     int insertInboxMessageToUsersByFilter(@Param("filterList") List<FilterItemDTO> filterList,
                                           @Param("message") Map<String, Object> message);
 
+    int insertInboxMessagesForWarning(@Param("warningId") Long warningId,
+                                      @Param("getDiff") boolean getDiff,
+                                      @Param("newArea") Geometry newArea,
+                                      @Param("oldArea") Geometry oldArea,
+                                      @Param("cursor") Long cursor,
+                                      @Param("cursorEnd") Long cursorEnd,
+                                      @Param("revision") String revision,
+                                      @Param("templates") List<Map<String, Object>> templates,
+                                      @Param("issuedDate") LocalDateTime issuedDate,
+                                      @Param("validUntil") Instant validUntil,
+                                      @Param("multipleAssetsTitle") String multipleAssetsTitle,
+                                      @Param("separator") String separator);
+
     int updateInboxMessageByUserId(Map<String, Object> message);
 
     int deleteInboxMessageByFilter(@Param("filterList") List<FilterItemDTO> filterList);
@@ -52,4 +68,15 @@ public interface ContactMapper {
     int deleteOutDatedInboxMessages();
 
     int deleteOutDatedInboxMessagesByUserId(@Param("userId") String userId);
+
+    /* notification ledger */
+
+    List<Map<String, Object>> selectLedgeredChannels(@Param("warningId") Long warningId,
+                                                     @Param("revision") String revision,
+                                                     @Param("userRowIds") List<Long> userRowIds);
+
+    List<String> insertLedgerEntries(@Param("warningId") Long warningId,
+                                     @Param("revision") String revision,
+                                     @Param("userRowId") Long userRowId,
+                                     @Param("channels") String[] channels);
 }
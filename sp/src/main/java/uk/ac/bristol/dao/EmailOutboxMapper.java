@@ -0,0 +1,29 @@
+package uk.ac.bristol.dao;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface EmailOutboxMapper {
+
+    int insertEmail(Map<String, Object> email);
+
+    List<Map<String, Object>> claimEmails(@Param("limit") int limit, @Param("leaseSeconds") double leaseSeconds);
+
+    int markSent(@Param("rowId") Long rowId);
+
+    int markFailed(@Param("rowId") Long rowId,
+                   @Param("error") String error,
+                   @Param("retryInSeconds") double retryInSeconds,
+                   @Param("dead") boolean dead);
+
+    int requeueDeadEmails();
+
+    List<Map<String, Object>> countEmailsByStatus();
+
+    int deleteSentEmailsBefore(@Param("before") Instant before);
+}
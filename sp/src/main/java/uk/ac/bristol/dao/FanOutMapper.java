@@ -0,0 +1,38 @@
+package uk.ac.bristol.dao;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface FanOutMapper {
+
+    Long insertFanOut(@Param("warningId") Long warningId,
+                      @Param("revision") String revision,
+                      @Param("previousArea") Geometry previousArea);
+
+    List<Map<String, Object>> selectUnfinishedFanOuts(@Param("maxAttempts") int maxAttempts);
+
+    List<Map<String, Object>> selectOldestUnfinishedFanOut(@Param("warningId") Long warningId);
+
+    int deleteSupersededFanOuts();
+
+    int increaseFanOutAttempts(@Param("rowId") Long rowId);
+
+    List<Map<String, Object>> selectRetryableFanOut(@Param("rowId") Long rowId, @Param("maxAttempts") int maxAttempts);
+
+    int deleteFinishedFanOuts(@Param("warningId") Long warningId, @Param("rowId") Long rowId);
+
+    List<Map<String, Object>> selectFanOutRanges(@Param("fanOutId") Long fanOutId);
+
+    int insertFanOutRanges(@Param("fanOutId") Long fanOutId, @Param("ranges") List<Map<String, Object>> ranges);
+
+    int updateFanOutRange(@Param("fanOutId") Long fanOutId,
+                          @Param("index") int index,
+                          @Param("cursor") long cursor,
+                          @Param("users") int users,
+                          @Param("done") boolean done);
+}
@@ -0,0 +1,28 @@
+package uk.ac.bristol.dao;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface FeedArchiveMapper {
+
+    List<Map<String, Object>> selectPayloadByHash(@Param("hash") String hash);
+
+    List<Map<String, Object>> selectFetches(@Param("from") Instant from,
+                                            @Param("to") Instant to,
+                                            @Param("limit") Integer limit);
+
+    List<String> selectReferencedSegments();
+
+    int insertPayload(Map<String, Object> payload);
+
+    int insertFetch(@Param("fetchTime") Instant fetchTime, @Param("hash") String hash);
+
+    int deleteFetchesBefore(@Param("before") Instant before);
+
+    int deleteUnreferencedPayloads();
+}
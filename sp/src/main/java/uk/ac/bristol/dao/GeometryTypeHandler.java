@@ -0,0 +1,48 @@
+package uk.ac.bristol.dao;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+import org.locationtech.jts.geom.Geometry;
+import uk.ac.bristol.util.GeometryTool;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Moves JTS geometries to and from PostGIS as WKB.
+ * <p>
+ * Columns are read with {@code ST_AsBinary(column)} and parameters are written with
+ * {@code ST_GeomFromWKB(#{param, typeHandler=uk.ac.bristol.dao.GeometryTypeHandler}, 4326)}.
+ */
+@MappedTypes(Geometry.class)
+@MappedJdbcTypes(JdbcType.BINARY)
+public class GeometryTypeHandler extends BaseTypeHandler<Geometry> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, Geometry parameter, JdbcType jdbcType) throws SQLException {
+        ps.setBytes(i, GeometryTool.toWKB(parameter));
+    }
+
+    @Override
+    public Geometry getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return toGeometry(rs.getBytes(columnName));
+    }
+
+    @Override
+    public Geometry getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return toGeometry(rs.getBytes(columnIndex));
+    }
+
+    @Override
+    public Geometry getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return toGeometry(cs.getBytes(columnIndex));
+    }
+
+    private Geometry toGeometry(byte[] wkb) {
+        return wkb == null ? null : GeometryTool.fromWKB(wkb);
+    }
+}
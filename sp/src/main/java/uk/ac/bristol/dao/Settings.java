@@ -24,6 +24,8 @@ public interface Settings {
 
     void createWeatherWarnings(@Param("tableName") String tableName);
 
+    void createAssetWarningHits();
+
     void createUKRegions(@Param("tableName") String tableName);
 
     void createNotificationTemplates(@Param("tableName") String tableName);
@@ -33,4 +35,16 @@ public interface Settings {
     void createUserAccessControlGroupMapping(@Param("tableName") String tableName);
 
     void createUserInboxes(@Param("tableName") String tableName);
+
+    void createEmailOutbox();
+
+    void createNotificationLedger();
+
+    void createFanOutCheckpoints();
+
+    void createWeatherFeedArchive();
+
+    void createReplaySchema();
+
+    void useReplaySchema();
 }
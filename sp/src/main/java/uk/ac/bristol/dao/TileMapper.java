@@ -0,0 +1,16 @@
+package uk.ac.bristol.dao;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface TileMapper {
+
+    byte[] selectTile(@Param("z") int z,
+                      @Param("x") int x,
+                      @Param("y") int y,
+                      @Param("ownerId") String ownerId,
+                      @Param("assetGeometry") String assetGeometry,
+                      @Param("clusterCellSize") double clusterCellSize,
+                      @Param("warningResolution") String warningResolution);
+}
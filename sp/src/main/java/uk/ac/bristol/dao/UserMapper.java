@@ -2,6 +2,7 @@ package uk.ac.bristol.dao;
 
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.locationtech.jts.geom.Geometry;
 import uk.ac.bristol.pojo.FilterItemDTO;
 import uk.ac.bristol.pojo.User;
 import uk.ac.bristol.pojo.UserWithAssets;
@@ -44,9 +45,15 @@ public interface UserMapper {
 
     List<UserWithAssets> groupUsersWithOwnedAssetsByWarningId(@Param("limit") Integer limit,
                                                               @Param("cursor") Long cursor,
+                                                              @Param("cursorEnd") Long cursorEnd,
                                                               @Param("warningId") Long warningId,
                                                               @Param("getDiff") boolean getDiff,
-                                                              @Param("newArea") String newAreaAsJson);
+                                                              @Param("newArea") Geometry newArea,
+                                                              @Param("oldArea") Geometry oldArea,
+                                                              @Param("externalOnly") boolean externalOnly);
+
+    List<Long> selectUserRowIdPartitionBounds(@Param("partitions") int partitions,
+                                              @Param("warningId") Long warningId);
 
     // counting
 
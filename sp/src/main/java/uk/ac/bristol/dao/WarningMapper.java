@@ -2,6 +2,7 @@ package uk.ac.bristol.dao;
 
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.locationtech.jts.geom.Geometry;
 import uk.ac.bristol.pojo.FilterItemDTO;
 import uk.ac.bristol.pojo.Warning;
 
@@ -25,27 +26,49 @@ public interface WarningMapper {
 
     List<Map<String, Object>> selectWarningsIncludingOutdatedAnchor(@Param("rowId") Long rowId);
 
+    List<Warning> selectLiveWarningsAtResolution(@Param("resolution") String resolution);
+
+    List<Warning> selectUnexpiredWarnings();
+
     List<Warning> selectWarningById(@Param("id") Long id);
 
     List<Warning> selectWarningsIntersectingWithGivenAsset(@Param("assetId") String assetId);
 
+    List<Map<String, Object>> selectWarningContentHashes(@Param("ids") List<Long> ids);
+
+    List<Warning> selectLiveWarningAreas(@Param("ids") List<Long> ids);
+
     boolean testWarningExistence(@Param("id") Long id);
 
     boolean testWarningDetailDiff(Warning warning);
 
-    boolean testWarningAreaDiff(@Param("id") Long warningId, @Param("areaAsJson") String areaAsJson);
+    boolean testWarningAreaDiff(@Param("id") Long warningId, @Param("areaGeometry") Geometry areaGeometry);
 
     int insertWarning(Warning warning);
 
     int updateWarning(Warning warning);
 
+    // bulk ingest
+
+    int insertWarningsIntoStaging(@Param("warnings") List<Warning> warnings);
+
+    List<Map<String, Object>> classifyStagedWarnings();
+
+    int insertNewWarningsFromStaging(@Param("ids") List<Long> ids);
+
+    int updateWarningsFromStaging(@Param("ids") List<Long> ids);
+
+    int clearWarningStaging();
+
     int deleteWarningByIDs(@Param("ids") Long[] ids);
 
     int deleteWarningByIDs(@Param("ids") List<Long> ids);
 
+    int deleteExpiredAssetWarningHits();
+
     // UK Regions
 
-    List<Map<String, Object>> selectIntersectingRegionsGivenGeometry(@Param("givenArea") String multiPolygon);
+    List<Map<String, Object>> selectIntersectingRegionsGivenGeometry(@Param("givenArea") Geometry givenArea);
 
     int insertUkRegion(Map<String, String> region);
 }
\ No newline at end of file
@@ -7,9 +7,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Point;
-import org.locationtech.jts.io.geojson.GeoJsonReader;
+import uk.ac.bristol.util.GeometryTool;
 
 import java.time.Instant;
 import java.time.LocalDate;
@@ -26,6 +25,7 @@ public class Asset {
     @JsonAlias("owner_id")
     private String ownerId;
     private Map<String, Object> location;
+    private Geometry locationGeometry;
     private Map<String, Object> postcode;
     @JsonAlias("capacity_litres")
     private Long capacityLitres;
@@ -36,6 +36,8 @@ public class Asset {
     @JsonAlias("last_inspection")
     private LocalDate lastInspection;
     private Instant lastModified;
+    // resolved from the centroid by the database, read only
+    private String region;
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -54,6 +56,7 @@ public class Asset {
                 ", installedAt=" + installedAt +
                 ", lastInspection=" + lastInspection +
                 ", lastModified=" + lastModified +
+                ", region='" + region + '\'' +
                 '}';
     }
 
@@ -105,19 +108,39 @@ public class Asset {
         this.ownerId = ownerId;
     }
 
-    // for front-end
+    // for front-end, GeoJSON is only produced when the asset is serialised
     public Map<String, Object> getLocation() {
+        if (location == null && locationGeometry != null) {
+            location = GeometryTool.toGeoJsonMap(locationGeometry);
+        }
         return location;
     }
 
     // for front-end
     public void setLocation(Map<String, Object> location) {
         this.location = location;
+        this.locationGeometry = null;
+    }
+
+    // for back-end persistence, mapped to PostGIS as WKB
+    @JsonIgnore
+    public Geometry getLocationGeometry() {
+        if (locationGeometry == null && location != null) {
+            locationGeometry = GeometryTool.fromGeoJson(location);
+        }
+        return locationGeometry;
+    }
+
+    public void setLocationGeometry(Geometry locationGeometry) {
+        this.locationGeometry = locationGeometry;
+        this.location = null;
     }
 
-    // for back-end persistence
     @JsonIgnore
     public String getLocationAsJson() {
+        if (location == null && locationGeometry != null) {
+            return GeometryTool.toGeoJson(locationGeometry);
+        }
         try {
             return objectMapper.writeValueAsString(location);
         } catch (JsonProcessingException e) {
@@ -125,11 +148,12 @@ public class Asset {
         }
     }
 
-    // for back-end persistence
     public void setLocationAsJson(String geoJson) {
         try {
+            this.locationGeometry = null;
             if (geoJson == null || geoJson.isBlank()) {
                 this.location = Map.ofEntries(Map.entry("type", "MultiPolygon"), Map.entry("coordinates", List.of(List.of(List.of()))));
+                this.locationGeometry = GeometryTool.emptyMultiPolygon();
                 return;
             }
             this.location = objectMapper.readValue(geoJson, new TypeReference<>() {
@@ -141,6 +165,7 @@ public class Asset {
 
     public void clearLocation() {
         this.location = null;
+        this.locationGeometry = null;
     }
 
     public Map<String, Object> getPostcode() {
@@ -201,17 +226,18 @@ public class Asset {
         this.lastModified = lastModified;
     }
 
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
     @JsonIgnore
     public Point getLocationCentroid() {
-        String location = this.getLocationAsJson();
-        if (location == null || location.isBlank()) return null;
-        try {
-            GeometryFactory geometryFactory = new GeometryFactory();
-            GeoJsonReader reader = new GeoJsonReader(geometryFactory);
-            Geometry geometry = reader.read(location);
-            return geometry.getCentroid();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to parse GeoJSON and calculate centroid", e);
-        }
+        Geometry geometry = getLocationGeometry();
+        if (geometry == null || geometry.isEmpty()) return null;
+        return geometry.getCentroid();
     }
 }
@@ -4,7 +4,12 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.locationtech.jts.geom.Geometry;
+import uk.ac.bristol.util.GeometryTool;
+import uk.ac.bristol.util.WarningFeedParser;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -25,6 +30,8 @@ public class Warning {
     private String warningFurtherDetails;
     private String warningUpdateDescription;
     private Map<String, Object> area;
+    private Geometry areaGeometry;
+    private String contentHash;
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -143,31 +150,62 @@ public class Warning {
         this.warningUpdateDescription = warningUpdateDescription;
     }
 
-    // for front-end
+    // hash of the raw feed feature, used to skip unchanged warnings on ingest
+    @JsonIgnore
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    // for front-end, GeoJSON is only produced when the warning is serialised
     public Map<String, Object> getArea() {
+        if (area == null && areaGeometry != null) {
+            area = GeometryTool.toGeoJsonMap(areaGeometry);
+        }
         return area;
     }
 
     // for front-end
     public void setArea(Map<String, Object> area) {
         this.area = area;
+        this.areaGeometry = null;
+    }
+
+    // for back-end persistence, mapped to PostGIS as WKB
+    @JsonIgnore
+    public Geometry getAreaGeometry() {
+        if (areaGeometry == null && area != null) {
+            areaGeometry = GeometryTool.fromGeoJson(area);
+        }
+        return areaGeometry;
+    }
+
+    public void setAreaGeometry(Geometry areaGeometry) {
+        this.areaGeometry = areaGeometry;
+        this.area = null;
     }
 
-    // for back-end persistence
     @JsonIgnore
     public String getAreaAsJson() {
+        if (area == null && areaGeometry != null) {
+            return GeometryTool.toGeoJson(areaGeometry);
+        }
         try {
-            return new ObjectMapper().writeValueAsString(area);
+            return objectMapper.writeValueAsString(area);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
     }
 
-    // for back-end persistence
     public void setAreaAsJson(String geoJson) {
         try {
+            this.areaGeometry = null;
             if (geoJson == null || geoJson.isBlank()) {
                 this.area = Map.ofEntries(Map.entry("type", "MultiPolygon"), Map.entry("coordinates", List.of(List.of(List.of()))));
+                this.areaGeometry = GeometryTool.emptyMultiPolygon();
                 return;
             }
             this.area = objectMapper.readValue(geoJson, new TypeReference<>() {
@@ -189,40 +227,16 @@ public class Warning {
         public Map<String, Object> geometry;
     }
 
-    private static Warning getWarningFromGeoJSON(Map<String, Object> properties, Map<String, Object> geometry) {
-        Warning warning = new Warning();
-        warning.setId(((Number) properties.get("OBJECTID")).longValue());
-        warning.setWeatherType((String) properties.get("weathertype"));
-        warning.setWarningLevel((String) properties.get("warninglevel"));
-        warning.setWarningHeadLine((String) properties.get("warningheadline"));
-        warning.setValidFrom(Instant.ofEpochMilli(((Number) properties.get("validfromdate")).longValue()));
-        warning.setValidTo(Instant.ofEpochMilli(((Number) properties.get("validtodate")).longValue()));
-        warning.setWarningImpact((String) properties.get("warningImpact"));
-        warning.setWarningLikelihood((String) properties.get("warningLikelihood"));
-        warning.setAffectedAreas((String) properties.get("affectedAreas"));
-        warning.setWhatToExpect((String) properties.get("whatToExpect"));
-        warning.setWarningFurtherDetails((String) properties.get("warningFurtherDetails"));
-        warning.setWarningUpdateDescription((String) properties.get("warningUpdateDescription"));
-        warning.setArea(geometry);
-        return warning;
-    }
-
     private static List<Feature> getFeatures(String GeoJSON) throws JsonProcessingException {
         return objectMapper.readValue(GeoJSON, FeatureCollection.class).features;
     }
 
-    private static List<Warning> parseWarningFromFeatures(List<Feature> features) {
-        if (features.isEmpty()) return new ArrayList<>();
-        List<Warning> warnings = new ArrayList<>();
-        for (Feature feature : features) {
-            Warning warning = getWarningFromGeoJSON(feature.properties, feature.geometry);
-            warnings.add(warning);
-        }
-        return warnings;
+    public static List<Warning> parseWarningsFromGeoJSON(String GeoJSON) throws IOException {
+        return WarningFeedParser.parse(GeoJSON);
     }
 
-    public static List<Warning> parseWarningsFromGeoJSON(String GeoJSON) throws JsonProcessingException {
-        return parseWarningFromFeatures(getFeatures(GeoJSON));
+    public static List<Warning> parseWarningsFromGeoJSON(InputStream GeoJSON) throws IOException {
+        return WarningFeedParser.parse(GeoJSON);
     }
 
     public static List<Map<String, String>> extractUKRegions(String GeoJSON) throws JsonProcessingException {
@@ -0,0 +1,112 @@
+package uk.ac.bristol.schedule;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.TriggerContext;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Polling interval of the Met Office crawler, adapted after every poll.
+ * <ul>
+ *     <li>the feed changed: poll again after the minimum interval</li>
+ *     <li>amber or red warnings are in force: back off, but no further than half the base rate</li>
+ *     <li>the feed is quiet: back off up to the maximum interval</li>
+ *     <li>the poll failed: keep the current interval</li>
+ * </ul>
+ * Every delay is jittered so restarts of several instances do not poll in lock step.
+ */
+@Component
+public class AdaptiveCrawlTrigger implements Trigger {
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final long severeInterval;
+    private final double backoff;
+    private final double jitter;
+
+    private long interval;
+    private long nextDelay;
+    private String reason = "initial rate";
+    private int quietPolls;
+    private Instant nextPollAt;
+
+    public AdaptiveCrawlTrigger(@Value("${metoffice.crawler.min-interval:120000}") long minInterval,
+                                @Value("${metoffice.crawler.max-interval:1800000}") long maxInterval,
+                                @Value("${metoffice.crawler.rate:600000}") long rate,
+                                @Value("${metoffice.crawler.backoff:1.5}") double backoff,
+                                @Value("${metoffice.crawler.jitter:0.1}") double jitter) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Crawler interval bounds must satisfy 0 < min-interval <= max-interval");
+        }
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.severeInterval = clamp(rate / 2);
+        this.backoff = Math.max(1.0, backoff);
+        this.jitter = Math.min(Math.max(jitter, 0.0), 0.5);
+        this.interval = clamp(rate);
+        this.nextDelay = interval;
+    }
+
+    @Override
+    public synchronized Date nextExecutionTime(TriggerContext triggerContext) {
+        Date last = triggerContext.lastCompletionTime();
+        // the first poll runs straight away, as it did with the fixed rate
+        long base = last == null ? System.currentTimeMillis() : last.getTime();
+        long delay = last == null ? 0L : nextDelay;
+        nextPollAt = Instant.ofEpochMilli(base + delay);
+        return Date.from(nextPollAt);
+    }
+
+    public synchronized void onFeedChanged(int severeWarnings) {
+        quietPolls = 0;
+        update(minInterval, "feed changed on last poll"
+                + (severeWarnings > 0 ? ", " + severeWarnings + " amber or red warnings in force" : ""));
+    }
+
+    public synchronized void onFeedUnchanged(int severeWarnings) {
+        quietPolls++;
+        if (severeWarnings > 0) {
+            update(Math.min(grow(), Math.max(severeInterval, minInterval)),
+                    severeWarnings + " amber or red warnings in force, feed unchanged for " + quietPolls + " polls");
+        } else {
+            update(grow(), "feed unchanged for " + quietPolls + " polls");
+        }
+    }
+
+    public synchronized void onFailure(String message) {
+        update(interval, "last poll failed: " + message);
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("intervalMillis", interval);
+        map.put("nextDelayMillis", nextDelay);
+        map.put("nextPollAt", nextPollAt);
+        map.put("reason", reason);
+        map.put("quietPolls", quietPolls);
+        map.put("minIntervalMillis", minInterval);
+        map.put("maxIntervalMillis", maxInterval);
+        return map;
+    }
+
+    private long grow() {
+        return clamp((long) (interval * backoff));
+    }
+
+    private void update(long interval, String reason) {
+        this.interval = clamp(interval);
+        this.reason = reason;
+        double factor = jitter == 0.0 ? 1.0 : 1.0 + ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+        this.nextDelay = Math.max(1L, (long) (this.interval * factor));
+    }
+
+    private long clamp(long value) {
+        return Math.min(maxInterval, Math.max(minInterval, value));
+    }
+}
@@ -0,0 +1,27 @@
+package uk.ac.bristol.schedule;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.ac.bristol.MockDataInitializer;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.service.WarningService;
+
+@Component
+public class ScheduledAssetWarningHitsCleaner {
+
+    @Autowired
+    WarningService warningService;
+
+    @Scheduled(fixedRate = 3600000)
+    public void pruneExpiredAssetWarningHits() {
+        try {
+            MockDataInitializer.latch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            throw new SpExceptions.SystemException("InterruptedException threw, failed to start the scheduled asset warning hits cleaner");
+        }
+        int n = warningService.deleteExpiredAssetWarningHits();
+        System.out.println(n + " asset warning hits of expired warnings pruned.");
+    }
+}
@@ -0,0 +1,27 @@
+package uk.ac.bristol.schedule;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.ac.bristol.MockDataInitializer;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.service.EmailOutboxService;
+
+@Component
+public class ScheduledEmailOutboxCleaner {
+
+    @Autowired
+    EmailOutboxService emailOutboxService;
+
+    @Scheduled(fixedRate = 86400000)
+    public void purgeSentEmails() {
+        try {
+            MockDataInitializer.latch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            throw new SpExceptions.SystemException("InterruptedException threw, failed to start the scheduled email outbox cleaner");
+        }
+        int n = emailOutboxService.purgeSentEmails();
+        System.out.println(n + " sent emails purged from the outbox.");
+    }
+}
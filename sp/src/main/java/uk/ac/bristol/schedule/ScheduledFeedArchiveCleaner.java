@@ -0,0 +1,27 @@
+package uk.ac.bristol.schedule;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.ac.bristol.MockDataInitializer;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.service.FeedArchiveService;
+
+@Component
+public class ScheduledFeedArchiveCleaner {
+
+    @Autowired
+    FeedArchiveService feedArchiveService;
+
+    @Scheduled(fixedRate = 86400000)
+    public void purgeExpiredPayloads() {
+        try {
+            MockDataInitializer.latch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            throw new SpExceptions.SystemException("InterruptedException threw, failed to start the scheduled archive cleaner");
+        }
+        int n = feedArchiveService.purgeExpired();
+        System.out.println(n + " archived weather warning fetches purged.");
+    }
+}
@@ -1,15 +1,23 @@
 package uk.ac.bristol.schedule;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.stereotype.Component;
 import uk.ac.bristol.MockDataInitializer;
 import uk.ac.bristol.exception.SpExceptions;
 import uk.ac.bristol.pojo.Warning;
+import uk.ac.bristol.service.FeedArchiveService;
+import uk.ac.bristol.service.WarningFanOutService;
 import uk.ac.bristol.service.WarningService;
+import uk.ac.bristol.util.HashTool;
+import uk.ac.bristol.util.PipelineMetrics;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.URI;
 import java.net.http.HttpClient;
@@ -17,25 +25,60 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 @Component
-public class ScheduledMetOfficeWarningsCrawler {
+public class ScheduledMetOfficeWarningsCrawler implements SchedulingConfigurer {
 
     @Value("${metoffice.url}")
     private String DEFAULT_URL;
 
     private final WarningService warningService;
+    private final FeedArchiveService feedArchiveService;
+    private final WarningFanOutService warningFanOutService;
+    private final AdaptiveCrawlTrigger trigger;
 
-    public ScheduledMetOfficeWarningsCrawler(WarningService warningService) {
+    // one client for the lifetime of the application so connections are reused between polls
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    // validators and fingerprint of the last feed that was fully processed
+    private volatile String lastETag;
+    private volatile String lastModified;
+    private volatile String lastFeedHash;
+    // end of validity of the amber and red warnings in the last processed feed
+    private volatile List<Instant> severeValidTo = List.of();
+
+    private final AtomicLong feedsFetched = new AtomicLong();
+    private final AtomicLong feedsSkippedUnchanged = new AtomicLong();
+    private final AtomicLong featuresSkippedUnchanged = new AtomicLong();
+    private final AtomicLong featuresProcessed = new AtomicLong();
+
+    public ScheduledMetOfficeWarningsCrawler(WarningService warningService, FeedArchiveService feedArchiveService, WarningFanOutService warningFanOutService, AdaptiveCrawlTrigger trigger) {
         this.warningService = warningService;
+        this.feedArchiveService = feedArchiveService;
+        this.warningFanOutService = warningFanOutService;
+        this.trigger = trigger;
+    }
+
+    // polling interval is adapted after every poll, see AdaptiveCrawlTrigger
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addTriggerTask(this::scheduledCrawler, trigger);
     }
 
-    @Scheduled(fixedRateString = "${metoffice.crawler.rate:600000}") // default polling rate -- 10 mins per polling
     public void scheduledCrawler() {
         try {
             MockDataInitializer.latch.await();
@@ -43,56 +86,146 @@ public class ScheduledMetOfficeWarningsCrawler {
             e.printStackTrace();
             throw new SpExceptions.SystemException("InterruptedException threw, failed to start the scheduled crawler");
         }
-        crawler();
+        try {
+            crawler();
+        } catch (RuntimeException e) {
+            trigger.onFailure(e.getMessage());
+            throw e;
+        }
+    }
+
+    public Map<String, Object> getCrawlerStatistics() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("feedsFetched", feedsFetched.get());
+        map.put("feedsSkippedUnchanged", feedsSkippedUnchanged.get());
+        map.put("featuresSkippedUnchanged", featuresSkippedUnchanged.get());
+        map.put("featuresProcessed", featuresProcessed.get());
+        map.put("lastFeedHash", lastFeedHash);
+        map.put("severeWarnings", countSevereWarnings());
+        map.put("schedule", trigger.getStatistics());
+        map.put("fanOut", warningFanOutService.getStatistics());
+        map.put("warningIndex", warningService.getActiveWarningIndexStatistics());
+        map.put("stages", PipelineMetrics.snapshot());
+        return map;
     }
 
     private void crawler() {
         // 1. get http response from met office site
-        HttpResponse<String> httpResponse = null;
-        String response = null;
+        HttpResponse<InputStream> httpResponse = null;
         try {
             httpResponse = getResponse();
         } catch (ConnectException e) {
             System.err.println("Failed to fetch weather warning data due to lost network connection.");
+            trigger.onFailure("lost network connection");
             return;
         } catch (Exception e) {
             throw new SpExceptions.SystemException("Failed to fetch weather warning data. " + e.getMessage());
         }
+        feedsFetched.incrementAndGet();
         if (httpResponse.statusCode() != HttpServletResponse.SC_OK) {
+            closeQuietly(httpResponse.body());
+            if (httpResponse.statusCode() == HttpServletResponse.SC_NOT_MODIFIED) {
+                feedsSkippedUnchanged.incrementAndGet();
+                System.out.println("Weather warning feed not modified since last poll, skipped.");
+                trigger.onFeedUnchanged(countSevereWarnings());
+                return;
+            }
             throw new SpExceptions.SystemException("Failed to fetch weather warning data due to HTTP error with code "
                     + httpResponse.statusCode());
         }
 
-        // 2. get GeoJSON data from http response
-        response = httpResponse.body();
+        // 2. stream GeoJSON data from http response to a spool file and archive it
+        Instant fetchTime = Instant.now();
+        Path spool;
+        String feedHash;
         try {
-            saveWarningData(response);
-            System.out.println("Successfully stored weather warning data at "
-                    + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            spool = Files.createTempFile("raw_", ".json");
         } catch (IOException e) {
-            throw new SpExceptions.SystemException("Failed to save fetched weather warning data at "
-                    + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
-                    + ". "
-                    + e.getMessage());
+            throw new SpExceptions.SystemException("Failed to create spool file for weather warning data. " + e.getMessage());
         }
-
-        // 3. parse GeoJSON into Warning DTO, send notifications
         List<Warning> warnings;
         try {
-            warnings = Warning.parseWarningsFromGeoJSON(response);
-        } catch (Exception e) {
-            throw new SpExceptions.SystemException(
-                    "Failed to parse fetched weather warning data at "
-                            + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
-                            + ". " + e.getMessage());
+            try {
+                MessageDigest digest = HashTool.sha256();
+                try (InputStream in = decodeBody(httpResponse);
+                     OutputStream out = new DigestOutputStream(Files.newOutputStream(spool), digest)) {
+                    in.transferTo(out);
+                }
+                feedHash = HashTool.toHex(digest.digest());
+            } catch (IOException e) {
+                throw new SpExceptions.SystemException("Failed to save fetched weather warning data at "
+                        + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
+                        + ". "
+                        + e.getMessage());
+            }
+            feedArchiveService.archivePayload(spool, feedHash, fetchTime);
+            System.out.println("Successfully stored weather warning data at "
+                    + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+
+            // skip the rest if the payload is identical to the last one
+            if (feedHash.equals(lastFeedHash)) {
+                feedsSkippedUnchanged.incrementAndGet();
+                rememberValidators(httpResponse);
+                System.out.println("Weather warning feed identical to last poll, skipped.");
+                trigger.onFeedUnchanged(countSevereWarnings());
+                return;
+            }
+
+            // 3. parse GeoJSON into Warning DTO incrementally, send notifications
+            long start = PipelineMetrics.start();
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(spool))) {
+                warnings = Warning.parseWarningsFromGeoJSON(in);
+                PipelineMetrics.record(PipelineMetrics.PARSE, start, warnings.size());
+            } catch (Exception e) {
+                throw new SpExceptions.SystemException(
+                        "Failed to parse fetched weather warning data at "
+                                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
+                                + ". " + e.getMessage());
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(spool);
+            } catch (IOException e) {
+                System.err.println("Failed to delete spool file " + spool + ": " + e.getMessage());
+            }
         }
+        boolean feedChanged = false;
         if (!warnings.isEmpty()) {
-            if (warningService.storeWarningsAndSendNotifications(warnings)) {
-                System.out.println("Successfully sent emails after crawling.");
+            // features whose content hash matches the stored row never reach the ingest transaction
+            long start = PipelineMetrics.start();
+            List<Warning> changed = warningService.filterChangedWarnings(warnings);
+            PipelineMetrics.record(PipelineMetrics.FILTER, start, warnings.size());
+            featuresSkippedUnchanged.addAndGet(warnings.size() - changed.size());
+            featuresProcessed.addAndGet(changed.size());
+            System.out.println("Weather warning feed has " + changed.size() + " changed and "
+                    + (warnings.size() - changed.size()) + " unchanged features.");
+            if (!changed.isEmpty() && warningService.storeWarningsAndSendNotifications(changed)) {
+                System.out.println("Queued notifications after crawling.");
             }
+            feedChanged = !changed.isEmpty();
         } else {
             System.out.println("No recently issued weather warnings.");
         }
+
+        severeValidTo = warnings.stream()
+                .filter(warning -> "AMBER".equalsIgnoreCase(warning.getWarningLevel()) || "RED".equalsIgnoreCase(warning.getWarningLevel()))
+                .map(Warning::getValidTo)
+                .filter(Objects::nonNull)
+                .toList();
+        if (feedChanged) {
+            trigger.onFeedChanged(countSevereWarnings());
+        } else {
+            trigger.onFeedUnchanged(countSevereWarnings());
+        }
+
+        // only remember the feed once it has been fully processed so a failed ingest is retried next poll
+        lastFeedHash = feedHash;
+        rememberValidators(httpResponse);
+    }
+
+    private int countSevereWarnings() {
+        Instant now = Instant.now();
+        return (int) severeValidTo.stream().filter(validTo -> validTo.isAfter(now)).count();
     }
 
     private String getBaseUrl(String url) {
@@ -102,23 +235,26 @@ public class ScheduledMetOfficeWarningsCrawler {
         return DEFAULT_URL;
     }
 
-    private HttpResponse<String> getResponse() throws IOException, InterruptedException {
-        HttpClient client = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
-
-        HttpRequest request = HttpRequest.newBuilder()
+    private HttpResponse<InputStream> getResponse() throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
                 .uri(URI.create(getBaseUrl(null)))
                 .timeout(Duration.ofSeconds(30))
                 .header("Accept", "application/json")
-                .build();
+                .header("Accept-Encoding", "gzip");
+        if (lastETag != null) {
+            builder.header("If-None-Match", lastETag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        HttpRequest request = builder.build();
 
         // retry at most 3 more times
         int maxRetries = 3;
 
         for (int attempt = 1; attempt <= maxRetries; attempt++) {
             try {
-                return client.send(request, HttpResponse.BodyHandlers.ofString());
+                return client.send(request, HttpResponse.BodyHandlers.ofInputStream());
             } catch (Exception e) {
                 if (attempt == maxRetries) throw e;
                 System.err.println("Attempt " + attempt + " failed: " + e.getMessage());
@@ -128,12 +264,23 @@ public class ScheduledMetOfficeWarningsCrawler {
         throw new IOException("All retries failed.");
     }
 
-    private void saveWarningData(String GeoJSON) throws IOException {
-        Path dataDir = Path.of("data");
-        if (Files.notExists(dataDir)) {
-            Files.createDirectories(dataDir);
+    private InputStream decodeBody(HttpResponse<InputStream> httpResponse) throws IOException {
+        boolean gzipped = httpResponse.headers()
+                .firstValue("Content-Encoding")
+                .map(encoding -> encoding.equalsIgnoreCase("gzip"))
+                .orElse(false);
+        return gzipped ? new GZIPInputStream(httpResponse.body()) : httpResponse.body();
+    }
+
+    private void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
         }
-        String timestamp = String.valueOf(Instant.now().toEpochMilli());
-        Files.writeString(dataDir.resolve("raw_" + timestamp + ".json"), GeoJSON);
     }
-}
\ No newline at end of file
+
+    private void rememberValidators(HttpResponse<InputStream> httpResponse) {
+        httpResponse.headers().firstValue("ETag").ifPresent(etag -> lastETag = etag);
+        httpResponse.headers().firstValue("Last-Modified").ifPresent(modified -> lastModified = modified);
+    }
+}
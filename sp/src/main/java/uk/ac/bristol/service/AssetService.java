@@ -73,6 +73,8 @@ public interface AssetService {
 
     int updateAsset(Asset asset);
 
+    int updateAssetCentroidsAndRegions();
+
     int deleteAssetTypeByIDs(String[] ids);
 
     int deleteAssetTypeByIDs(List<String> ids);
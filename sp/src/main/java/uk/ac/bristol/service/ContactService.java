@@ -1,5 +1,6 @@
 package uk.ac.bristol.service;
 
+import org.locationtech.jts.geom.Geometry;
 import uk.ac.bristol.controller.ResponseBody;
 import uk.ac.bristol.pojo.Template;
 import uk.ac.bristol.pojo.UserWithAssets;
@@ -12,6 +13,20 @@ public interface ContactService {
 
     void sendNotificationsToUser(Warning warning, UserWithAssets uwa);
 
+    void sendExternalNotificationsToUser(Warning warning, UserWithAssets uwa);
+
+    List<UserWithAssets> filterUnsentNotifications(Warning warning, List<UserWithAssets> users, boolean externalOnly);
+
+    boolean canInsertInboxMessagesInDatabase(Warning warning);
+
+    int insertInboxMessagesForWarning(Warning warning, Geometry previousArea, Long cursor, Long cursorEnd);
+
+    void setLocalSink(boolean enabled);
+
+    boolean isLocalSink();
+
+    Map<String, Long> getLocallyDeliveredNotifications();
+
     Map<String, Object> formatNotification(Warning warning, UserWithAssets uwa, String channel);
 
     ResponseBody unsubscribeEmail(String token);
@@ -37,6 +52,8 @@ public interface ContactService {
 
     List<Template> getNotificationTemplateByTypes(Template template);
 
+    Map<String, Object> getNotificationTemplateCacheStatistics();
+
     Template getNotificationTemplateById(Long id);
 
     int insertNotificationTemplate(Template templates);
@@ -0,0 +1,16 @@
+package uk.ac.bristol.service;
+
+import java.util.Map;
+
+public interface EmailOutboxService {
+
+    void enqueue(String address, Map<String, Object> notification);
+
+    int sendDueEmails();
+
+    int requeueDeadEmails();
+
+    int purgeSentEmails();
+
+    Map<String, Object> getStatistics();
+}
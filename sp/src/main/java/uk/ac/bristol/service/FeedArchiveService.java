@@ -0,0 +1,18 @@
+package uk.ac.bristol.service;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public interface FeedArchiveService {
+
+    void archivePayload(Path payload, String hash, Instant fetchTime);
+
+    List<Map<String, Object>> getFetches(Instant from, Instant to, Integer limit);
+
+    InputStream openPayload(String hash);
+
+    int purgeExpired();
+}
@@ -0,0 +1,13 @@
+package uk.ac.bristol.service;
+
+import java.time.Instant;
+import java.util.Map;
+
+public interface ReplayService {
+
+    Map<String, Object> startReplay(String directory, Instant from, Instant to, Double speedup);
+
+    Map<String, Object> stopReplay();
+
+    Map<String, Object> getReplayReport();
+}
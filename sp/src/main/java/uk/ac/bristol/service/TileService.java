@@ -0,0 +1,10 @@
+package uk.ac.bristol.service;
+
+import java.util.Map;
+
+public interface TileService {
+
+    byte[] getTile(int z, int x, int y, String ownerId);
+
+    Map<String, Object> getTileCacheStatistics();
+}
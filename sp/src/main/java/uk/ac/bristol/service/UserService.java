@@ -1,5 +1,6 @@
 package uk.ac.bristol.service;
 
+import org.locationtech.jts.geom.Geometry;
 import uk.ac.bristol.pojo.User;
 import uk.ac.bristol.pojo.UserWithAssets;
 import uk.ac.bristol.pojo.UserWithExtraColumns;
@@ -50,9 +51,14 @@ public interface UserService {
 
     List<UserWithAssets> groupUsersWithOwnedAssetsByWarningId(Integer limit,
                                                               Long cursor,
-                                                              Long waringId,
+                                                              Long cursorEnd,
+                                                              Long warningId,
                                                               boolean getDiff,
-                                                              String newAreaAsJson);
+                                                              Geometry newArea,
+                                                              Geometry oldArea,
+                                                              boolean externalOnly);
+
+    List<Long> getUserRowIdPartitionBounds(int partitions, Long warningId);
 
     Map<String, Integer> groupUserAddressPostcodeByCountry(Map<String, Object> filters);
 
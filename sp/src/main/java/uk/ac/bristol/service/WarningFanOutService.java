@@ -0,0 +1,16 @@
+package uk.ac.bristol.service;
+
+import org.locationtech.jts.geom.Geometry;
+import uk.ac.bristol.pojo.Warning;
+
+import java.time.Duration;
+import java.util.Map;
+
+public interface WarningFanOutService {
+
+    void publish(Warning warning, Geometry previousArea);
+
+    boolean awaitIdle(Duration timeout) throws InterruptedException;
+
+    Map<String, Object> getStatistics();
+}
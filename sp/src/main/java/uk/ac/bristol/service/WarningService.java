@@ -1,5 +1,6 @@
 package uk.ac.bristol.service;
 
+import org.locationtech.jts.geom.Geometry;
 import uk.ac.bristol.pojo.Asset;
 import uk.ac.bristol.pojo.Warning;
 
@@ -30,12 +31,24 @@ public interface WarningService {
                                                        Integer limit,
                                                        Integer offset);
 
+    List<Warning> getLiveWarningsAtResolution(String resolution);
+
     Warning getWarningById(Long id);
 
     List<Warning> getWarningsIntersectingWithGivenAsset(String assetId);
 
+    List<Warning> getWarningsIntersectingWithGivenGeometry(Geometry geometry);
+
+    Map<String, Object> getActiveWarningIndexStatistics();
+
+    List<Warning> filterChangedWarnings(List<Warning> parsedWarnings);
+
     boolean storeWarningsAndSendNotifications(List<Warning> parsedWarnings);
 
+    void resetReplaySchema();
+
+    List<Warning> replayWarnings(List<Warning> parsedWarnings);
+
     int insertWarning(Warning warning);
 
     int updateWarning(Warning warning);
@@ -44,6 +57,8 @@ public interface WarningService {
 
     int deleteWarningByIDs(List<Long> ids);
 
+    int deleteExpiredAssetWarningHits();
+
     // UK Regions
 
     String getRegionNameGivenAsset(Asset asset);
@@ -0,0 +1,179 @@
+package uk.ac.bristol.service.impl;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.ac.bristol.dao.WarningMapper;
+import uk.ac.bristol.pojo.Warning;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The warnings that have not expired yet, with their areas prepared and indexed by an STRtree, so that the warnings
+ * over an asset are found in memory instead of with a join against asset_warning_hits.
+ * <p>
+ * The index is rebuilt after every committed write to the warnings and at least every refresh interval, a new tree
+ * is built aside and swapped in, so lookups never wait for a rebuild. Only the first lookup builds the index on the
+ * calling thread, once it is stale lookups keep using it while a refresh runs in the background. A warning is only
+ * returned while now is within its validity period, the same as the live warnings of
+ * selectWarningsIntersectingWithGivenAsset.
+ */
+@Component
+public class ActiveWarningIndex {
+
+    private final WarningMapper warningMapper;
+    private final long refreshIntervalMillis;
+
+    // null until the first lookup
+    private volatile Snapshot snapshot;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ActiveWarningIndexRefresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder failedRebuilds = new LongAdder();
+
+    public ActiveWarningIndex(WarningMapper warningMapper,
+                              @Value("${metoffice.warning-index.refresh-interval:60000}") long refreshIntervalMillis) {
+        this.warningMapper = warningMapper;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * Live warnings whose area intersects the given geometry, ordered by warning id.
+     */
+    public List<Warning> getWarningsIntersecting(Geometry geometry) {
+        lookups.increment();
+        if (geometry == null || geometry.isEmpty()) {
+            return List.of();
+        }
+        Snapshot current = current();
+        Instant now = Instant.now();
+        List<Warning> list = new ArrayList<>();
+        for (Object item : current.tree().query(geometry.getEnvelopeInternal())) {
+            Entry entry = (Entry) item;
+            if (entry.isLive(now) && entry.area().intersects(geometry)) {
+                list.add(entry.warning());
+            }
+        }
+        list.sort(Comparator.comparing(Warning::getId));
+        return list;
+    }
+
+    /**
+     * Rebuilds the index once the current transaction has committed, or straight away outside a transaction. The write
+     * has already been committed by then, so a failed rebuild is logged and left to the next refresh.
+     */
+    public void rebuildAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    tryRebuild();
+                }
+            });
+        } else {
+            tryRebuild();
+        }
+    }
+
+    // writers are serialised, readers keep using the previous snapshot until the new one is published
+    public synchronized void rebuild() {
+        List<Warning> warnings = warningMapper.selectUnexpiredWarnings();
+        STRtree tree = new STRtree();
+        for (Warning warning : warnings) {
+            Geometry area = warning.getAreaGeometry();
+            if (area == null || area.isEmpty()) {
+                continue;
+            }
+            tree.insert(area.getEnvelopeInternal(), new Entry(warning, PreparedGeometryFactory.prepare(area)));
+        }
+        tree.build();
+        snapshot = new Snapshot(tree, tree.size(), System.currentTimeMillis());
+        rebuilds.increment();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Snapshot current = snapshot;
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("warnings", current == null ? 0 : current.size());
+        map.put("builtAt", current == null ? null : Instant.ofEpochMilli(current.builtAt()).toString());
+        map.put("lookups", lookups.sum());
+        map.put("rebuilds", rebuilds.sum());
+        map.put("failedRebuilds", failedRebuilds.sum());
+        return map;
+    }
+
+    @PreDestroy
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                // another thread may have built it while this one waited
+                if (snapshot == null) {
+                    rebuild();
+                }
+                return snapshot;
+            }
+        }
+        if (System.currentTimeMillis() - current.builtAt() >= refreshIntervalMillis && refreshing.compareAndSet(false, true)) {
+            try {
+                refresher.execute(() -> {
+                    try {
+                        tryRebuild();
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                refreshing.set(false);
+                System.err.println("Failed to schedule a refresh of the active warning index: " + e.getMessage());
+            }
+        }
+        return current;
+    }
+
+    private void tryRebuild() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            failedRebuilds.increment();
+            System.err.println("Failed to rebuild the active warning index: " + e.getMessage());
+        }
+    }
+
+    private record Snapshot(STRtree tree, int size, long builtAt) {
+    }
+
+    private record Entry(Warning warning, PreparedGeometry area) {
+
+        private boolean isLive(Instant now) {
+            return warning.getValidFrom() != null && warning.getValidTo() != null
+                    && !now.isBefore(warning.getValidFrom()) && !now.isAfter(warning.getValidTo());
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package uk.ac.bristol.service.impl;
 
 import org.apache.ibatis.annotations.Param;
+import org.locationtech.jts.geom.Geometry;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import uk.ac.bristol.controller.Code;
 import uk.ac.bristol.dao.AssetMapper;
 import uk.ac.bristol.dao.MetaDataMapper;
 import uk.ac.bristol.exception.SpExceptions;
@@ -25,18 +25,22 @@ import java.util.stream.Collectors;
 @Service
 public class AssetServiceImpl implements AssetService {
 
+    private static final int CENTROID_BATCH_SIZE = 1000;
+
     private final MetaDataMapper metaDataMapper;
     private final AssetMapper assetMapper;
     private final UserService userService;
     private final WarningService warningService;
     private final ContactService contactService;
+    private final TileCache tileCache;
 
-    public AssetServiceImpl(MetaDataMapper metaDataMapper, AssetMapper assetMapper, UserService userService, WarningService warningService, ContactService contactService) {
+    public AssetServiceImpl(MetaDataMapper metaDataMapper, AssetMapper assetMapper, UserService userService, WarningService warningService, ContactService contactService, TileCache tileCache) {
         this.metaDataMapper = metaDataMapper;
         this.assetMapper = assetMapper;
         this.userService = userService;
         this.warningService = warningService;
         this.contactService = contactService;
+        this.tileCache = tileCache;
     }
 
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
@@ -192,27 +196,11 @@ public class AssetServiceImpl implements AssetService {
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     @Override
     public Map<String, Integer> groupAssetLocationByRegion(Map<String, Object> filters) {
-        int limit = Code.PAGINATION_MAX_LIMIT;
-        long cursor = 0L;
-        int length = 0;
+        // grouped on the region stored with each asset, nothing is intersected on read
         Map<String, Integer> result = new HashMap<>();
-
-        do {
-            List<AssetWithWeatherWarnings> list = getCursoredAssetsWithWarnings(true, cursor, filters, null, limit, null);
-            if (list == null) {
-                throw new SpExceptions.SystemException("Failed to access database or data integrity is broken.");
-            }
-            length = list.size();
-            if (length == 0) break;
-
-            for (AssetWithWeatherWarnings aww : list) {
-                String name = warningService.getRegionNameGivenAsset(aww.getAsset());
-                if (name != null && !name.isBlank()) {
-                    result.put(name, result.getOrDefault(name, 0) + 1);
-                }
-            }
-            cursor = list.get(list.size() - 1).getAsset().getRowId();
-        } while (length > 0);
+        for (Map<String, Object> row : assetMapper.countAssetsGroupByRegion(QueryTool.formatFilters(filters))) {
+            result.put((String) row.get("name"), ((Number) row.get("count")).intValue());
+        }
         return result;
     }
 
@@ -263,7 +251,7 @@ public class AssetServiceImpl implements AssetService {
 
             // if the new asset intersects with live warnings, send notifications
             asset.setId(assetId.get(0));
-            List<Warning> warnings = warningService.getWarningsIntersectingWithGivenAsset(asset.getId());
+            List<Warning> warnings = getIntersectingWarnings(asset);
             if (!warnings.isEmpty()) {
                 User owner = userService.getUserByUserId(asset.getOwnerId());
                 for (Warning warning : warnings) {
@@ -277,9 +265,19 @@ public class AssetServiceImpl implements AssetService {
             }
         }
         metaDataMapper.increaseTotalCountByTableName("assets", n);
+        tileCache.invalidate();
         return asset.getId();
     }
 
+    // live warnings over the location being written, from memory unless the database would have to repair it first
+    private List<Warning> getIntersectingWarnings(Asset asset) {
+        Geometry location = asset.getLocationGeometry();
+        if (location == null || !location.isValid()) {
+            return warningService.getWarningsIntersectingWithGivenAsset(asset.getId());
+        }
+        return warningService.getWarningsIntersectingWithGivenGeometry(location);
+    }
+
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
     @Override
     public int updateAssetType(AssetType assetType) {
@@ -306,10 +304,12 @@ public class AssetServiceImpl implements AssetService {
         Instant now = Instant.now();
         owner.setLastModified(now);
         userService.updateUser(owner);
+        // tiles show the name and status of assets as well as their locations
+        tileCache.invalidate();
 
         // if asset area is not touched, update now and return early
         asset.setLastModified(now);
-        if (asset.getLocationAsJson() == null || asset.getLocationAsJson().isBlank() || assetMapper.testAssetLocationDiff(asset.getId(), asset.getLocationAsJson())) {
+        if (asset.getLocationGeometry() == null || assetMapper.testAssetLocationDiff(asset.getId(), asset.getLocationGeometry())) {
             return assetMapper.updateAsset(asset);
         }
 
@@ -322,7 +322,7 @@ public class AssetServiceImpl implements AssetService {
         int n = assetMapper.updateAsset(asset);
 
         // if area is touched but no intersecting live warning, return early
-        List<Warning> newWarnings = warningService.getWarningsIntersectingWithGivenAsset(asset.getId());
+        List<Warning> newWarnings = getIntersectingWarnings(asset);
         if (newWarnings.isEmpty()) {
             return n;
         }
@@ -339,6 +339,21 @@ public class AssetServiceImpl implements AssetService {
         return n;
     }
 
+    // not transactional, outside a transaction each batch is committed on its own
+    @Override
+    public int updateAssetCentroidsAndRegions() {
+        int n = 0;
+        Long last = 0L;
+        while (true) {
+            Map<String, Object> batch = assetMapper.updateAssetCentroidsAndRegions(last, CENTROID_BATCH_SIZE);
+            if (batch == null || batch.get("last") == null) {
+                return n;
+            }
+            last = ((Number) batch.get("last")).longValue();
+            n += ((Number) batch.get("count")).intValue();
+        }
+    }
+
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRES_NEW)
     @Override
     public int deleteAssetTypeByIDs(String[] ids) {
@@ -360,6 +375,7 @@ public class AssetServiceImpl implements AssetService {
     public int deleteAssetByIDs(String[] ids) {
         int n = assetMapper.deleteAssetByIDs(ids);
         metaDataMapper.increaseTotalCountByTableName("assets", -n);
+        tileCache.invalidate();
         return n;
     }
 
@@ -368,6 +384,7 @@ public class AssetServiceImpl implements AssetService {
     public int deleteAssetByIDs(List<String> ids) {
         int n = assetMapper.deleteAssetByIDs(ids);
         metaDataMapper.increaseTotalCountByTableName("assets", -n);
+        tileCache.invalidate();
         return n;
     }
 }
@@ -3,18 +3,13 @@ package uk.ac.bristol.service.impl;
 import com.twilio.Twilio;
 import com.twilio.rest.api.v2010.account.Message;
 import io.jsonwebtoken.Claims;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.locationtech.jts.geom.Geometry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -25,27 +20,19 @@ import uk.ac.bristol.dao.MetaDataMapper;
 import uk.ac.bristol.exception.SpExceptions;
 import uk.ac.bristol.pojo.*;
 import uk.ac.bristol.service.ContactService;
+import uk.ac.bristol.service.EmailOutboxService;
 import uk.ac.bristol.service.UserService;
 import uk.ac.bristol.util.JwtUtil;
+import uk.ac.bristol.util.PipelineMetrics;
 import uk.ac.bristol.util.QueryTool;
+import uk.ac.bristol.util.ReplayScope;
+import uk.ac.bristol.util.TemplateRenderer;
 
-import javax.activation.DataHandler;
-import javax.activation.DataSource;
-import javax.mail.MessagingException;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
-import javax.mail.util.ByteArrayDataSource;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 public class ContactServiceImpl implements ContactService {
@@ -60,56 +47,223 @@ public class ContactServiceImpl implements ContactService {
     @Autowired
     private StringRedisTemplate redisTemplate;
 
-    @Autowired
-    private AsyncEmailSender asyncEmailSender;
-
     private final UserService userService;
     private final MetaDataMapper metaDataMapper;
     private final ContactMapper contactMapper;
+    private final NotificationTemplateCache notificationTemplateCache;
+    private final EmailOutboxService emailOutboxService;
+
+    private static final String MULTIPLE_ASSETS_TITLE = "Weather warning for multiple assets";
+    private static final String INBOX = "inbox";
+    private static final List<String> EXTERNAL_CHANNELS = List.of("email", "phone", "post");
 
     private final Duration expireTime = Duration.ofMinutes(5);
     private final String prefix = "email:verify:code:";
 
     private final Set<String> verifiedEmails = ConcurrentHashMap.newKeySet();
 
-    public ContactServiceImpl(UserService userService, MetaDataMapper metaDataMapper, ContactMapper contactMapper) {
+    @Value("${notification.local-sink:false}")
+    private volatile boolean localSink;
+    private final Map<String, LongAdder> locallyDelivered = new ConcurrentHashMap<>();
+
+    public ContactServiceImpl(UserService userService, MetaDataMapper metaDataMapper, ContactMapper contactMapper, NotificationTemplateCache notificationTemplateCache, EmailOutboxService emailOutboxService) {
         this.userService = userService;
         this.metaDataMapper = metaDataMapper;
         this.contactMapper = contactMapper;
+        this.notificationTemplateCache = notificationTemplateCache;
+        this.emailOutboxService = emailOutboxService;
     }
 
+    /**
+     * Warnings carrying the content hash of their revision are recorded in the notification ledger, channels already
+     * in it for that revision are not notified again.
+     */
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
     @Override
     public void sendNotificationsToUser(Warning warning, UserWithAssets uwa) {
-        Map<String, Boolean> contactPreferences = uwa.getUser().getContactPreferences();
+        long start = PipelineMetrics.start();
+        Set<String> channels = claimChannels(warning, uwa, true);
+        if (channels.isEmpty()) {
+            return;
+        }
+        Map<String, Object> emailNotification = channels.contains(INBOX) ? formatNotification(warning, uwa, "email") : null;
+        deliverExternally(warning, uwa, channels, emailNotification);
 
-        Map<String, Object> emailNotification = formatNotification(warning, uwa, "email");
+        // send inbox notification using email message
+        if (emailNotification != null) {
+            insertInboxMessageToUser(Map.of(
+                    "userId", emailNotification.get("toUserId"),
+                    "hasRead", false,
+                    "issuedDate", emailNotification.get("createdAt"),
+                    "validUntil", emailNotification.get("validUntil"),
+                    "title", emailNotification.get("title"),
+                    "message", emailNotification.get("body")));
+        }
+        PipelineMetrics.record(PipelineMetrics.NOTIFY, start, 1);
+    }
 
-        System.out.println("sending---------------------------");
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public void sendExternalNotificationsToUser(Warning warning, UserWithAssets uwa) {
+        long start = PipelineMetrics.start();
+        Set<String> channels = claimChannels(warning, uwa, false);
+        if (channels.isEmpty()) {
+            return;
+        }
+        deliverExternally(warning, uwa, channels, null);
+        PipelineMetrics.record(PipelineMetrics.NOTIFY, start, 1);
+    }
 
-        if (contactPreferences.get("email").equals(Boolean.TRUE)) {
-            asyncEmailSender.sendEmailToAddress(
-                    uwa.getUser().getContactDetails().get("email"),
-                    emailNotification
-            );
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    @Override
+    public List<UserWithAssets> filterUnsentNotifications(Warning warning, List<UserWithAssets> users, boolean externalOnly) {
+        String revision = warning.getContentHash();
+        if (revision == null || users.isEmpty()) {
+            return users;
         }
-        if (contactPreferences.get("phone").equals(Boolean.TRUE)) {
+        Map<Long, Set<String>> ledgered = new HashMap<>();
+        List<Long> userRowIds = users.stream().map(uwa -> uwa.getUser().getRowId()).toList();
+        for (Map<String, Object> row : contactMapper.selectLedgeredChannels(warning.getId(), revision, userRowIds)) {
+            ledgered.computeIfAbsent(((Number) row.get("rowId")).longValue(), k -> new HashSet<>()).add((String) row.get("channel"));
+        }
+        if (ledgered.isEmpty()) {
+            return users;
+        }
+        List<UserWithAssets> unsent = new ArrayList<>(users.size());
+        for (UserWithAssets uwa : users) {
+            Set<String> sent = ledgered.get(uwa.getUser().getRowId());
+            if (sent == null || !sent.containsAll(channelsOf(uwa, !externalOnly))) {
+                unsent.add(uwa);
+            }
+        }
+        return unsent;
+    }
+
+    // the channels to notify the user on, without those already in the ledger for this revision of the warning
+    private Set<String> claimChannels(Warning warning, UserWithAssets uwa, boolean inbox) {
+        List<String> channels = channelsOf(uwa, inbox);
+        String revision = warning.getContentHash();
+        if (revision == null || channels.isEmpty()) {
+            return new HashSet<>(channels);
+        }
+        return new HashSet<>(contactMapper.insertLedgerEntries(warning.getId(), revision, uwa.getUser().getRowId(),
+                channels.toArray(String[]::new)));
+    }
+
+    private static List<String> channelsOf(UserWithAssets uwa, boolean inbox) {
+        List<String> channels = new ArrayList<>(EXTERNAL_CHANNELS.size() + 1);
+        if (inbox) {
+            channels.add(INBOX);
+        }
+        Map<String, Boolean> contactPreferences = uwa.getUser().getContactPreferences();
+        for (String channel : EXTERNAL_CHANNELS) {
+            if (Boolean.TRUE.equals(contactPreferences.get(channel))) {
+                channels.add(channel);
+            }
+        }
+        return channels;
+    }
+
+    // the email notification is formatted here unless the caller already has it
+    private void deliverExternally(Warning warning, UserWithAssets uwa, Set<String> channels, Map<String, Object> emailNotification) {
+        if (channels.contains("email")) {
+            if (emailNotification == null) {
+                emailNotification = formatNotification(warning, uwa, "email");
+            }
+            deliver("email", uwa.getUser().getContactDetails().get("email"), emailNotification);
+        }
+        if (channels.contains("phone")) {
             Map<String, Object> smsNotification = formatNotification(warning, uwa, "phone");
             // send sms
+            deliver("phone", uwa.getUser().getContactDetails().get("phone"), smsNotification);
         }
-        if (contactPreferences.get("post").equals(Boolean.TRUE)) {
+        if (channels.contains("post")) {
             Map<String, Object> postNotification = formatNotification(warning, uwa, "post");
             // send http post
+            deliver("post", null, postNotification);
         }
+    }
 
-        // send inbox notification using email message
-        insertInboxMessageToUser(Map.of(
-                "userId", emailNotification.get("toUserId"),
-                "hasRead", false,
-                "issuedDate", emailNotification.get("createdAt"),
-                "validUntil", emailNotification.get("validUntil"),
-                "title", emailNotification.get("title"),
-                "message", emailNotification.get("body")));
+    @Override
+    public boolean canInsertInboxMessagesInDatabase(Warning warning) {
+        return inboxTemplates(warning) != null;
+    }
+
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public int insertInboxMessagesForWarning(Warning warning, Geometry previousArea, Long cursor, Long cursorEnd) {
+        long start = PipelineMetrics.start();
+        List<Map<String, Object>> templates = inboxTemplates(warning);
+        if (templates == null) {
+            throw new SpExceptions.SystemException("Inbox messages of warning " + warning.getId() + " cannot be rendered by the database");
+        }
+        int n = contactMapper.insertInboxMessagesForWarning(warning.getId(), previousArea != null, warning.getAreaGeometry(), previousArea,
+                cursor, cursorEnd, warning.getContentHash(), templates, LocalDateTime.now(), warning.getValidTo(),
+                MULTIPLE_ASSETS_TITLE, System.lineSeparator());
+        PipelineMetrics.record(PipelineMetrics.NOTIFY, start, n);
+        return n;
+    }
+
+    /**
+     * The email templates of the warning as literal segments and variable names for render_notification_template,
+     * null if there are none or one of them uses a variable the database cannot resolve.
+     */
+    private List<Map<String, Object>> inboxTemplates(Warning warning) {
+        Map<String, NotificationTemplateCache.Entry> mapping = notificationTemplateCache.getTemplatesByAssetType(
+                warning.getWeatherType(), warning.getWarningLevel(), "email");
+        if (mapping.isEmpty()) {
+            return null;
+        }
+        List<Map<String, Object>> templates = new ArrayList<>(mapping.size());
+        for (Map.Entry<String, NotificationTemplateCache.Entry> entry : mapping.entrySet()) {
+            TemplateRenderer.Compiled title = entry.getValue().title();
+            TemplateRenderer.Compiled body = entry.getValue().body();
+            if (!Arrays.stream(title.getVariableNames()).allMatch(TemplateRenderer::isBuiltIn)
+                    || !Arrays.stream(body.getVariableNames()).allMatch(TemplateRenderer::isBuiltIn)) {
+                return null;
+            }
+            Map<String, Object> template = new HashMap<>();
+            template.put("assetTypeId", entry.getKey());
+            template.put("titleLiterals", title.getLiterals());
+            template.put("titleNames", title.getVariableNames());
+            template.put("bodyLiterals", body.getLiterals());
+            template.put("bodyNames", body.getVariableNames());
+            templates.add(template);
+        }
+        return templates;
+    }
+
+    private void deliver(String channel, String address, Map<String, Object> notification) {
+        long start = PipelineMetrics.start();
+        ReplayScope replay = ReplayScope.current();
+        if (replay != null) {
+            // a replay only counts what would have been delivered, live notifications on other threads are sent
+            replay.deliver(channel);
+        } else if (localSink) {
+            // load tests count notifications instead of handing them to external providers
+            locallyDelivered.computeIfAbsent(channel, k -> new LongAdder()).increment();
+        } else if ("email".equals(channel)) {
+            // written in the same transaction as the inbox message, sent by the outbox workers after commit
+            emailOutboxService.enqueue(address, notification);
+        }
+        PipelineMetrics.record(PipelineMetrics.DELIVER, start, 1);
+    }
+
+    @Override
+    public void setLocalSink(boolean enabled) {
+        this.localSink = enabled;
+    }
+
+    @Override
+    public boolean isLocalSink() {
+        return localSink;
+    }
+
+    @Override
+    public Map<String, Long> getLocallyDeliveredNotifications() {
+        Map<String, Long> map = new TreeMap<>();
+        locallyDelivered.forEach((channel, count) -> map.put(channel, count.sum()));
+        return map;
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
@@ -119,14 +273,10 @@ public class ContactServiceImpl implements ContactService {
         String warningType = warning.getWeatherType();
         String severity = warning.getWarningLevel();
 
-        List<Template> allTemplatesOfWarning = contactMapper.selectNotificationTemplateByTypes(new Template(null, warningType, severity, channel));
-        if (allTemplatesOfWarning.isEmpty()) {
+        Map<String, NotificationTemplateCache.Entry> mapping = notificationTemplateCache.getTemplatesByAssetType(warningType, severity, channel);
+        if (mapping.isEmpty()) {
             throw new SpExceptions.SystemException("No templates found for the type of warning " + warning.getId());
         }
-        Map<String, Template> mapping = new HashMap<>();
-        for (Template template : allTemplatesOfWarning) {
-            mapping.put(template.getAssetTypeId(), template);
-        }
 
         // 2. get individual template for each asset and group them together
         int length = uwa.getAssets().size();
@@ -137,14 +287,14 @@ public class ContactServiceImpl implements ContactService {
             if (!mapping.containsKey(typeId)) {
                 throw new SpExceptions.SystemException("Template for Asset type " + typeId + " does not exist");
             }
-            Template template = mapping.get(typeId);
+            NotificationTemplateCache.Entry template = mapping.get(typeId);
             if (length == 1) {
-                title.append(fillInVariablesWithValues(template.getTitle(), uwa.getUser(), asset));
+                template.title().renderTo(title, uwa.getUser(), asset);
             }
-            body.append(fillInVariablesWithValues(template.getBody(), uwa.getUser(), asset)).append(System.lineSeparator());
+            template.body().renderTo(body, uwa.getUser(), asset).append(System.lineSeparator());
         }
         if (length > 1) {
-            title.append("Weather warning for multiple assets");
+            title.append(MULTIPLE_ASSETS_TITLE);
         }
 
         String id = UUID.randomUUID().toString();
@@ -161,11 +311,10 @@ public class ContactServiceImpl implements ContactService {
                 "channel", channel));
     }
 
-    private String fillInVariablesWithValues(String content, User user, Asset asset) {
-        return content
-                .replace("{{asset_model}}", asset.getName())
-                .replace("{{contact_name}}", user.getName())
-                .replace("{{post_town}}", user.getAddress().get("city"));
+    // placeholders are checked when a template is written rather than when a notification is sent
+    private void compileTemplate(Template template) {
+        TemplateRenderer.compile(template.getTitle());
+        TemplateRenderer.compile(template.getBody());
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
@@ -300,6 +449,11 @@ public class ContactServiceImpl implements ContactService {
                 limit, offset);
     }
 
+    @Override
+    public Map<String, Object> getNotificationTemplateCacheStatistics() {
+        return notificationTemplateCache.getStatistics();
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     @Override
     public List<Template> getNotificationTemplateByTypes(Template template) {
@@ -319,7 +473,9 @@ public class ContactServiceImpl implements ContactService {
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
     @Override
     public int insertNotificationTemplate(Template templates) {
+        compileTemplate(templates);
         int n = contactMapper.insertNotificationTemplate(templates);
+        notificationTemplateCache.invalidate();
         metaDataMapper.increaseTotalCountByTableName("templates", n);
         return n;
     }
@@ -327,19 +483,26 @@ public class ContactServiceImpl implements ContactService {
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
     @Override
     public int updateNotificationTemplateMessageById(Template template) {
-        return contactMapper.updateNotificationTemplateMessageById(template);
+        compileTemplate(template);
+        int n = contactMapper.updateNotificationTemplateMessageById(template);
+        notificationTemplateCache.invalidate();
+        return n;
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
     @Override
     public int updateNotificationTemplateMessageByTypes(Template template) {
-        return contactMapper.updateNotificationTemplateMessageByTypes(template);
+        compileTemplate(template);
+        int n = contactMapper.updateNotificationTemplateMessageByTypes(template);
+        notificationTemplateCache.invalidate();
+        return n;
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRES_NEW)
     @Override
     public int deleteNotificationTemplateByIds(Long[] ids) {
         int n = contactMapper.deleteNotificationTemplateByIds(ids);
+        notificationTemplateCache.invalidate();
         metaDataMapper.increaseTotalCountByTableName("templates", -n);
         return n;
     }
@@ -348,6 +511,7 @@ public class ContactServiceImpl implements ContactService {
     @Override
     public int deleteNotificationTemplateByIds(List<Long> ids) {
         int n = contactMapper.deleteNotificationTemplateByIds(ids);
+        notificationTemplateCache.invalidate();
         metaDataMapper.increaseTotalCountByTableName("templates", -n);
         return n;
     }
@@ -356,6 +520,7 @@ public class ContactServiceImpl implements ContactService {
     @Override
     public int deleteNotificationTemplateByType(Template template) {
         int n = contactMapper.deleteNotificationTemplateByType(template);
+        notificationTemplateCache.invalidate();
         metaDataMapper.increaseTotalCountByTableName("templates", -n);
         return n;
     }
@@ -416,132 +581,3 @@ public class ContactServiceImpl implements ContactService {
         verifiedEmails.remove(email);
     }
 }
-
-@Component
-class AsyncEmailSender {
-    @Autowired
-    private JavaMailSender mailSender;
-
-    @Value("${spring.mail.username}")
-    private String from;
-
-    @Value("${app.base-url}")
-    private String baseURL;
-
-    @Async("notificationExecutor")
-    public void sendEmailToAddress(String toEmailAddress, Map<String, Object> notification) {
-        if (notification == null) {
-            throw new SpExceptions.SystemException("Failed to send email because notification is null");
-        }
-
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            message.setFrom(from);
-            message.setRecipients(javax.mail.Message.RecipientType.TO, InternetAddress.parse(toEmailAddress));
-            message.setSubject(notification.get("title").toString());
-
-            MimeMultipart multipart = new MimeMultipart("related");
-
-            MimeBodyPart htmlPart = new MimeBodyPart();
-
-            String html = notification.get("body").toString();
-
-            System.out.println(html);
-
-            Map<String, String> cidMap = new HashMap<>();
-            Document doc = Jsoup.parse(html);
-            Elements images = doc.select("img[src^=http]");
-
-            for (Element img : images) {
-                String src = img.attr("src");
-                String cid = UUID.randomUUID().toString();
-                cidMap.put(src, cid);
-                img.attr("src", "cid:" + cid);
-            }
-
-            String modifiedHtml = doc.html();
-
-            Map<String, Object> claims = new HashMap<>();
-            claims.put("unsubscribe-email-uid", notification.get("toUserId").toString());
-            claims.put("action", "unsubscribe-email");
-            String unsubscribeUrl = baseURL + "/user/notify/email/unsubscribe?token=" + JwtUtil.generateJWT(claims);
-
-            String finalHtml = "<!DOCTYPE html>\n" +
-                    "<html lang=\"en\">\n" +
-                    "<head>\n" +
-                    "    <meta charset=\"UTF-8\">\n" +
-                    "    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n" +
-                    "    <title>Email</title>\n" +
-                    "</head>\n" +
-                    "<body>\n" +
-                    modifiedHtml +
-                    "<br><br>" +
-                    "To unsubscribe email notifications, click the link below:" +
-                    "<br>" +
-                    "<a href=\"" + unsubscribeUrl + "\">unsubscribe</a>" +
-                    "</body>\n" +
-                    "</html>";
-
-            htmlPart.setContent(finalHtml, "text/html; charset=UTF-8");
-
-            multipart.addBodyPart(htmlPart);
-
-            for (Map.Entry<String, String> entry : cidMap.entrySet()) {
-                MimeBodyPart imagePart = new MimeBodyPart();
-
-                String imageUrl = entry.getKey();
-                String cid = entry.getValue();
-
-                URL url = new URL(imageUrl);
-                URLConnection connection = url.openConnection();
-                String contentType = connection.getContentType();
-                if (contentType == null) {
-                    contentType = "image/png";
-                }
-
-                String fileName = "image.png";
-                String path = url.getPath();
-                int lastSlash = path.lastIndexOf('/');
-                if (lastSlash >= 0 && lastSlash < path.length() - 1) {
-                    fileName = path.substring(lastSlash + 1);
-                }
-
-                try (InputStream inputStream = connection.getInputStream();
-                     ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-
-                    byte[] data = new byte[1024];
-                    int nRead;
-                    while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
-                        buffer.write(data, 0, nRead);
-                    }
-                    buffer.flush();
-                    byte[] imageBytes = buffer.toByteArray();
-
-                    DataSource ds = new ByteArrayDataSource(imageBytes, contentType);
-
-                    imagePart.setDataHandler(new DataHandler(ds));
-                    imagePart.setHeader("Content-ID", "<" + cid + ">");
-                    imagePart.setDisposition(MimeBodyPart.INLINE);
-                    imagePart.setFileName(fileName);
-
-                    multipart.addBodyPart(imagePart);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            message.setContent(multipart);
-
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            message.writeTo(out);
-            System.out.println(out.toString("UTF-8"));
-
-            mailSender.send(message);
-        } catch (MessagingException e) {
-            throw new SpExceptions.SystemException("Failed to send email using mime message helper");
-        } catch (IOException e) {
-            throw new SpExceptions.SystemException("Failed to download image for embedding: " + e.getMessage());
-        }
-    }
-}
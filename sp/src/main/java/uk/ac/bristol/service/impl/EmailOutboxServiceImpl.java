@@ -0,0 +1,252 @@
+package uk.ac.bristol.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.ac.bristol.MockDataInitializer;
+import uk.ac.bristol.dao.EmailOutboxMapper;
+import uk.ac.bristol.service.EmailOutboxService;
+import uk.ac.bristol.util.PipelineMetrics;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable outbox for email notifications.
+ * <p>
+ * Emails are rows of email_outbox written in the transaction that stores the inbox message, so nothing is lost
+ * when the application stops and nothing is sent for a rolled back notification. A fixed pool of sender threads
+ * claims due rows with skip locked, sends them within a shared rate limit, and reschedules failures with
+ * exponential backoff until they are dead-lettered after the maximum number of attempts.
+ */
+@Service
+public class EmailOutboxServiceImpl implements EmailOutboxService {
+
+    private final EmailOutboxMapper emailOutboxMapper;
+    private final EmailSender emailSender;
+
+    private final int senders;
+    private final int batchSize;
+    private final double ratePerSecond;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final long leaseMillis;
+    private final long pollIntervalMillis;
+    private final int retentionDays;
+
+    private final List<Thread> threads = new ArrayList<>();
+    // released after a commit that added emails so idle senders do not wait for the next poll
+    private final Semaphore wakeups = new Semaphore(0);
+
+    private final Object rateMonitor = new Object();
+    private long nextPermitNanos = System.nanoTime();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    public EmailOutboxServiceImpl(EmailOutboxMapper emailOutboxMapper,
+                                  EmailSender emailSender,
+                                  @Value("${notification.email.senders:4}") int senders,
+                                  @Value("${notification.email.batch-size:20}") int batchSize,
+                                  @Value("${notification.email.rate-per-second:10}") double ratePerSecond,
+                                  @Value("${notification.email.max-attempts:6}") int maxAttempts,
+                                  @Value("${notification.email.backoff:30000}") long backoffMillis,
+                                  @Value("${notification.email.max-backoff:3600000}") long maxBackoffMillis,
+                                  @Value("${notification.email.lease:300000}") long leaseMillis,
+                                  @Value("${notification.email.poll-interval:5000}") long pollIntervalMillis,
+                                  @Value("${notification.email.retention-days:7}") int retentionDays) {
+        this.emailOutboxMapper = emailOutboxMapper;
+        this.emailSender = emailSender;
+        this.senders = senders;
+        this.batchSize = batchSize;
+        this.ratePerSecond = ratePerSecond;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.leaseMillis = leaseMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.retentionDays = retentionDays;
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < senders; i++) {
+            Thread thread = new Thread(this::work, "EmailSender-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        threads.forEach(Thread::interrupt);
+    }
+
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public void enqueue(String address, Map<String, Object> notification) {
+        Map<String, Object> email = new HashMap<>();
+        email.put("toUserId", notification.get("toUserId"));
+        email.put("address", address);
+        email.put("title", notification.get("title"));
+        email.put("body", notification.get("body"));
+        emailOutboxMapper.insertEmail(email);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp();
+                }
+            });
+        } else {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Claims one batch of due emails and sends it, returns the number of emails claimed.
+     */
+    @Override
+    public int sendDueEmails() {
+        List<Map<String, Object>> emails = emailOutboxMapper.claimEmails(batchSize, leaseMillis / 1000.0);
+        try (EmailSender.Batch batch = emailSender.batch()) {
+            for (Map<String, Object> email : emails) {
+                if (!acquirePermit()) {
+                    // the rest of the batch becomes due again when its lease ends
+                    break;
+                }
+                send(batch, email);
+            }
+        }
+        return emails.size();
+    }
+
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public int requeueDeadEmails() {
+        int n = emailOutboxMapper.requeueDeadEmails();
+        wakeUp();
+        return n;
+    }
+
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public int purgeSentEmails() {
+        return emailOutboxMapper.deleteSentEmailsBefore(Instant.now().minus(Duration.ofDays(retentionDays)));
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> byStatus = new TreeMap<>();
+        long depth = 0;
+        Object oldest = null;
+        for (Map<String, Object> row : emailOutboxMapper.countEmailsByStatus()) {
+            String status = (String) row.get("status");
+            long count = ((Number) row.get("count")).longValue();
+            byStatus.put(status, count);
+            if ("pending".equals(status) || "sending".equals(status)) {
+                depth += count;
+                if (oldest == null || ((Comparable<Object>) row.get("oldest")).compareTo(oldest) < 0) {
+                    oldest = row.get("oldest");
+                }
+            }
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("queueDepth", depth);
+        map.put("oldestQueued", oldest);
+        map.put("byStatus", byStatus);
+        map.put("sent", sent.get());
+        map.put("failed", failed.get());
+        map.put("deadLettered", deadLettered.get());
+        map.put("senders", senders);
+        map.put("ratePerSecond", ratePerSecond);
+        map.put("sendLatency", PipelineMetrics.snapshot().get(PipelineMetrics.EMAIL));
+        map.put("imageCache", emailSender.getImageCacheStatistics());
+        map.put("smtp", emailSender.getTransportStatistics());
+        return map;
+    }
+
+    private void work() {
+        try {
+            MockDataInitializer.latch.await();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (sendDueEmails() == 0) {
+                        wakeups.tryAcquire(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Email outbox sender failed to claim emails: " + e.getMessage());
+                    Thread.sleep(pollIntervalMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(EmailSender.Batch batch, Map<String, Object> email) {
+        Long rowId = ((Number) email.get("rowId")).longValue();
+        long start = PipelineMetrics.start();
+        try {
+            batch.send((String) email.get("address"), email);
+            PipelineMetrics.record(PipelineMetrics.EMAIL, start, 1);
+            emailOutboxMapper.markSent(rowId);
+            sent.incrementAndGet();
+        } catch (RuntimeException e) {
+            int attempts = ((Number) email.get("attempts")).intValue();
+            boolean dead = attempts >= maxAttempts;
+            long retryIn = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempts - 1, 30));
+            emailOutboxMapper.markFailed(rowId, String.valueOf(e.getMessage()), retryIn / 1000.0, dead);
+            failed.incrementAndGet();
+            if (dead) {
+                deadLettered.incrementAndGet();
+                System.err.println("Email " + rowId + " to " + email.get("address") + " dead-lettered after " + attempts + " attempts: " + e.getMessage());
+            } else {
+                System.err.println("Email " + rowId + " to " + email.get("address") + " failed, retrying in " + retryIn + " ms: " + e.getMessage());
+            }
+        }
+    }
+
+    private void wakeUp() {
+        if (wakeups.availablePermits() < senders) {
+            wakeups.release(senders);
+        }
+    }
+
+    // waits for the shared rate limit, false if interrupted
+    private boolean acquirePermit() {
+        if (ratePerSecond <= 0) {
+            return true;
+        }
+        long wait;
+        synchronized (rateMonitor) {
+            long now = System.nanoTime();
+            if (nextPermitNanos - now < 0) {
+                nextPermitNanos = now;
+            }
+            wait = nextPermitNanos - now;
+            nextPermitNanos += (long) (1e9 / ratePerSecond);
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
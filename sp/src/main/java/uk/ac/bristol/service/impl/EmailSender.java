@@ -0,0 +1,200 @@
+package uk.ac.bristol.service.impl;
+
+import org.jsoup.parser.Parser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.util.JwtUtil;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the MIME message of an email notification and hands it to the SMTP server, blocking until it is accepted.
+ * Called by the outbox workers of {@link EmailOutboxServiceImpl}, which retry on failure and send each claimed
+ * batch over one session of {@link SmtpTransportPool}.
+ * <p>
+ * Remote images are embedded as inline parts taken from {@link InlineImageCache}, so a fan-out downloads each image
+ * once and every message shares the same bytes. Only the personalised HTML and the unsubscribe link are built per
+ * recipient.
+ */
+@Component
+public class EmailSender {
+
+    // src of an <img> pointing at http(s), the value is group 3
+    private static final Pattern IMAGE_SOURCE = Pattern.compile(
+            "(<img\\b[^>]*?\\bsrc\\s*=\\s*)([\"'])(https?://[^\"']+)\\2", Pattern.CASE_INSENSITIVE);
+
+    private static final String HTML_PREFIX = "<!DOCTYPE html>\n" +
+            "<html lang=\"en\">\n" +
+            "<head>\n" +
+            "    <meta charset=\"UTF-8\">\n" +
+            "    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n" +
+            "    <title>Email</title>\n" +
+            "</head>\n" +
+            "<body>\n";
+    private static final String UNSUBSCRIBE_PREFIX = "<br><br>" +
+            "To unsubscribe email notifications, click the link below:" +
+            "<br>" +
+            "<a href=\"";
+    private static final String HTML_SUFFIX = "\">unsubscribe</a>" +
+            "</body>\n" +
+            "</html>";
+
+    private final JavaMailSender mailSender;
+    private final InlineImageCache imageCache;
+    private final SmtpTransportPool transportPool;
+    private final String from;
+    private final String baseURL;
+    private final boolean debug;
+
+    public EmailSender(JavaMailSender mailSender,
+                       InlineImageCache imageCache,
+                       SmtpTransportPool transportPool,
+                       @Value("${spring.mail.username}") String from,
+                       @Value("${app.base-url}") String baseURL,
+                       @Value("${notification.email.debug:false}") boolean debug) {
+        this.mailSender = mailSender;
+        this.imageCache = imageCache;
+        this.transportPool = transportPool;
+        this.from = from;
+        this.baseURL = baseURL;
+        this.debug = debug;
+    }
+
+    public void sendEmailToAddress(String toEmailAddress, Map<String, Object> notification) {
+        try (Batch batch = batch()) {
+            batch.send(toEmailAddress, notification);
+        }
+    }
+
+    /**
+     * A batch of emails sent over one pooled SMTP session, to be closed when done.
+     */
+    public Batch batch() {
+        return new Batch(transportPool.lease());
+    }
+
+    public final class Batch implements AutoCloseable {
+        private final SmtpTransportPool.Lease lease;
+
+        private Batch(SmtpTransportPool.Lease lease) {
+            this.lease = lease;
+        }
+
+        public void send(String toEmailAddress, Map<String, Object> notification) {
+            MimeMessage message = buildMessage(toEmailAddress, notification);
+            try {
+                lease.send(message);
+            } catch (MessagingException e) {
+                throw new SpExceptions.SystemException("Failed to send email using mime message helper. " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            lease.close();
+        }
+    }
+
+    private MimeMessage buildMessage(String toEmailAddress, Map<String, Object> notification) {
+        if (notification == null) {
+            throw new SpExceptions.SystemException("Failed to send email because notification is null");
+        }
+
+        try {
+            MimeMessage message = mailSender.createMimeMessage();
+            message.setFrom(from);
+            message.setRecipients(javax.mail.Message.RecipientType.TO, InternetAddress.parse(toEmailAddress));
+            message.setSubject(notification.get("title").toString());
+
+            String html = notification.get("body").toString();
+            if (debug) {
+                System.out.println(html);
+            }
+
+            Map<String, Object> claims = new HashMap<>();
+            claims.put("unsubscribe-email-uid", notification.get("toUserId").toString());
+            claims.put("action", "unsubscribe-email");
+            String unsubscribeUrl = baseURL + "/user/notify/email/unsubscribe?token=" + JwtUtil.generateJWT(claims);
+
+            StringBuilder finalHtml = new StringBuilder(HTML_PREFIX.length() + html.length() + 512);
+            finalHtml.append(HTML_PREFIX);
+            Map<String, InlineImageCache.InlineImage> images = embedImages(html, finalHtml);
+            finalHtml.append(UNSUBSCRIBE_PREFIX).append(unsubscribeUrl).append(HTML_SUFFIX);
+
+            MimeMultipart multipart = new MimeMultipart("related");
+            MimeBodyPart htmlPart = new MimeBodyPart();
+            htmlPart.setContent(finalHtml.toString(), "text/html; charset=UTF-8");
+            multipart.addBodyPart(htmlPart);
+
+            for (InlineImageCache.InlineImage image : images.values()) {
+                MimeBodyPart imagePart = new MimeBodyPart();
+                imagePart.setDataHandler(image.dataHandler());
+                imagePart.setHeader("Content-ID", "<" + image.contentId() + ">");
+                imagePart.setDisposition(MimeBodyPart.INLINE);
+                imagePart.setFileName(image.fileName());
+                multipart.addBodyPart(imagePart);
+            }
+
+            message.setContent(multipart);
+
+            if (debug) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                message.writeTo(out);
+                System.out.println(out.toString("UTF-8"));
+            }
+            return message;
+        } catch (MessagingException e) {
+            throw new SpExceptions.SystemException("Failed to build email using mime message helper. " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new SpExceptions.SystemException("Failed to write email for debugging: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getImageCacheStatistics() {
+        return imageCache.getStatistics();
+    }
+
+    public Map<String, Object> getTransportStatistics() {
+        return transportPool.getStatistics();
+    }
+
+    /**
+     * Appends the html with every remote image that could be fetched pointing at its inline part, and returns
+     * those images by URL. Images that cannot be fetched keep their original src.
+     */
+    private Map<String, InlineImageCache.InlineImage> embedImages(String html, StringBuilder out) {
+        Map<String, InlineImageCache.InlineImage> images = new LinkedHashMap<>();
+        Matcher matcher = IMAGE_SOURCE.matcher(html);
+        int last = 0;
+        while (matcher.find()) {
+            String url = Parser.unescapeEntities(matcher.group(3), true);
+            InlineImageCache.InlineImage image = images.get(url);
+            if (image == null) {
+                Optional<InlineImageCache.InlineImage> fetched = imageCache.get(url);
+                if (fetched.isEmpty()) {
+                    continue;
+                }
+                image = fetched.get();
+                images.put(url, image);
+            }
+            out.append(html, last, matcher.start(3)).append("cid:").append(image.contentId());
+            last = matcher.end(3);
+        }
+        out.append(html, last, html.length());
+        return images;
+    }
+}
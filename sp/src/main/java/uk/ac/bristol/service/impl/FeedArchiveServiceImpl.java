@@ -0,0 +1,137 @@
+package uk.ac.bristol.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import uk.ac.bristol.dao.FeedArchiveMapper;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.service.FeedArchiveService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed archive of raw Met Office payloads.
+ * <p>
+ * Every distinct payload is appended once as a gzip member to the segment file of the day it was first seen,
+ * its hash, segment, offset and length are kept in weather_feed_payloads. Every fetch only adds a row to
+ * weather_feed_fetches pointing at the hash, so polls returning an identical feed cost one index row.
+ */
+@Service
+public class FeedArchiveServiceImpl implements FeedArchiveService {
+
+    @Value("${metoffice.archive.dir:data/archive}")
+    private String archiveDir;
+
+    @Value("${metoffice.archive.retention-days:30}")
+    private int retentionDays;
+
+    private final FeedArchiveMapper feedArchiveMapper;
+
+    public FeedArchiveServiceImpl(FeedArchiveMapper feedArchiveMapper) {
+        this.feedArchiveMapper = feedArchiveMapper;
+    }
+
+    // segments are only ever appended to by one writer at a time
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public synchronized void archivePayload(Path payload, String hash, Instant fetchTime) {
+        if (feedArchiveMapper.selectPayloadByHash(hash).isEmpty()) {
+            try {
+                Path dir = Path.of(archiveDir);
+                Files.createDirectories(dir);
+                String segment = "segment_" + LocalDate.ofInstant(fetchTime, ZoneOffset.UTC).format(DateTimeFormatter.BASIC_ISO_DATE) + ".gz";
+                Path segmentPath = dir.resolve(segment);
+
+                // a partially written member left by a crash is never referenced, so appending after it is safe
+                long offset = Files.exists(segmentPath) ? Files.size(segmentPath) : 0L;
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                    Files.copy(payload, out);
+                }
+                feedArchiveMapper.insertPayload(Map.of(
+                        "hash", hash,
+                        "segment", segment,
+                        "offset", offset,
+                        "length", Files.size(segmentPath) - offset,
+                        "rawSize", Files.size(payload)));
+            } catch (IOException e) {
+                throw new SpExceptions.SystemException("Failed to archive weather warning payload " + hash + ". " + e.getMessage(), e);
+            }
+        }
+        feedArchiveMapper.insertFetch(fetchTime, hash);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    @Override
+    public List<Map<String, Object>> getFetches(Instant from, Instant to, Integer limit) {
+        return feedArchiveMapper.selectFetches(from, to, limit);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    @Override
+    public InputStream openPayload(String hash) {
+        List<Map<String, Object>> list = feedArchiveMapper.selectPayloadByHash(hash);
+        if (list.size() != 1) {
+            throw new SpExceptions.NotFoundException("Found " + list.size() + " archived payloads for hash " + hash);
+        }
+        Map<String, Object> payload = list.get(0);
+        Path segmentPath = Path.of(archiveDir).resolve((String) payload.get("segment"));
+        long offset = ((Number) payload.get("offset")).longValue();
+        int length = Math.toIntExact(((Number) payload.get("length")).longValue());
+
+        // only the compressed member is read into memory, decompression is streamed to the caller
+        byte[] member = new byte[length];
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath.toFile(), "r")) {
+            file.seek(offset);
+            file.readFully(member);
+            return new GZIPInputStream(new ByteArrayInputStream(member));
+        } catch (IOException e) {
+            throw new SpExceptions.SystemException("Failed to read archived payload " + hash + " from " + segmentPath + ". " + e.getMessage(), e);
+        }
+    }
+
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public synchronized int purgeExpired() {
+        int n = feedArchiveMapper.deleteFetchesBefore(Instant.now().minus(Duration.ofDays(retentionDays)));
+        feedArchiveMapper.deleteUnreferencedPayloads();
+
+        // a segment is removed once none of its payloads is referenced by a retained fetch
+        Set<String> referenced = new HashSet<>(feedArchiveMapper.selectReferencedSegments());
+        Path dir = Path.of(archiveDir);
+        if (Files.notExists(dir)) {
+            return n;
+        }
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir, "segment_*.gz")) {
+            String today = "segment_" + LocalDate.now(ZoneOffset.UTC).format(DateTimeFormatter.BASIC_ISO_DATE) + ".gz";
+            for (Path segment : segments) {
+                String name = segment.getFileName().toString();
+                if (!referenced.contains(name) && !name.equals(today)) {
+                    Files.delete(segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new SpExceptions.SystemException("Failed to purge weather warning archive. " + e.getMessage(), e);
+        }
+        return n;
+    }
+}
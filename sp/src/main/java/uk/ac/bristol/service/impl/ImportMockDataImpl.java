@@ -28,24 +28,33 @@ public class ImportMockDataImpl implements ImportMockData {
     private final AssetService assetService;
     private final WarningService warningService;
     private final ContactService contactService;
+    private final NotificationTemplateCache notificationTemplateCache;
+    private final TileCache tileCache;
     private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
 
     public ImportMockDataImpl(Settings settings,
                               UserService userService,
                               AssetService assetService,
                               WarningService warningService,
-                              ContactService contactService) {
+                              ContactService contactService,
+                              NotificationTemplateCache notificationTemplateCache,
+                              TileCache tileCache) {
         this.settings = settings;
         this.userService = userService;
         this.assetService = assetService;
         this.warningService = warningService;
         this.contactService = contactService;
+        this.notificationTemplateCache = notificationTemplateCache;
+        this.tileCache = tileCache;
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
     @Override
     public void resetSchema() {
         settings.resetSchema();
+        // templates, assets and warnings are dropped with the schema
+        notificationTemplateCache.invalidate();
+        tileCache.invalidate();
         settings.createTableMetaData();
         settings.createUsers("users");
         settings.createAddress("address");
@@ -54,11 +63,16 @@ public class ImportMockDataImpl implements ImportMockData {
         settings.createAssetTypes("asset_types");
         settings.createAssets("assets");
         settings.createWeatherWarnings("weather_warnings");
+        settings.createAssetWarningHits();
         settings.createUKRegions("uk_regions");
         settings.createNotificationTemplates("templates");
         settings.createAccessControlGroups("access_control_groups");
         settings.createUserAccessControlGroupMapping("user_group_mappings");
         settings.createUserInboxes("inboxes");
+        settings.createEmailOutbox();
+        settings.createNotificationLedger();
+        settings.createFanOutCheckpoints();
+        settings.createWeatherFeedArchive();
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
@@ -157,6 +171,8 @@ public class ImportMockDataImpl implements ImportMockData {
             for (Map<String, String> map : list) {
                 warningService.insertUkRegion(map);
             }
+            // assets imported before the regions have no region yet
+            assetService.updateAssetCentroidsAndRegions();
         } catch (Exception e) {
             throw new SpExceptions.SystemException("Failed to load UK regions.", e);
         }
@@ -0,0 +1,180 @@
+package uk.ac.bristol.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.ac.bristol.util.HashTool;
+
+import javax.activation.DataHandler;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Images embedded into notification emails, downloaded once per URL and shared by every message.
+ * <p>
+ * Entries expire after a TTL and the least recently used ones are evicted once the cached bytes exceed the bound.
+ * Concurrent misses on one URL wait for a single download. Failed downloads are remembered for a shorter TTL, so a
+ * broken URL in a template sent to many recipients is not fetched again for every message.
+ */
+@Component
+public class InlineImageCache {
+
+    /**
+     * An image with its content id, the data handler is immutable and can back parts of many messages.
+     */
+    public record InlineImage(String url, String contentId, String contentType, String fileName, byte[] bytes,
+                              DataHandler dataHandler) {
+    }
+
+    private record Entry(InlineImage image, long expiresAt) {
+    }
+
+    private static final int MAX_FAILED_URLS = 1024;
+
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final long failureTtlMillis;
+    // URLs whose last download failed, with the time until which they are not tried again, oldest first
+    private final LinkedHashMap<String, Long> failedUntil = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_FAILED_URLS;
+        }
+    };
+    private final Map<String, CompletableFuture<InlineImage>> downloads = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder failureHits = new LongAdder();
+
+    public InlineImageCache(@Value("${notification.email.image-cache.max-bytes:16777216}") long maxBytes,
+                            @Value("${notification.email.image-cache.ttl:3600000}") long ttlMillis,
+                            @Value("${notification.email.image-cache.failure-ttl:60000}") long failureTtlMillis) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.failureTtlMillis = failureTtlMillis;
+    }
+
+    /**
+     * The image at the given URL, empty if it cannot be downloaded.
+     */
+    public Optional<InlineImage> get(String url) {
+        synchronized (this) {
+            Entry entry = entries.get(url);
+            if (entry != null && entry.expiresAt() - System.currentTimeMillis() > 0) {
+                hits.increment();
+                return Optional.of(entry.image());
+            }
+            if (entry != null) {
+                remove(url);
+            }
+            Long until = failedUntil.get(url);
+            if (until != null && until - System.currentTimeMillis() > 0) {
+                failureHits.increment();
+                return Optional.empty();
+            }
+            if (until != null) {
+                failedUntil.remove(url);
+            }
+        }
+        misses.increment();
+        CompletableFuture<InlineImage> download = new CompletableFuture<>();
+        CompletableFuture<InlineImage> running = downloads.putIfAbsent(url, download);
+        if (running != null) {
+            return Optional.ofNullable(running.join());
+        }
+        try {
+            InlineImage image = download(url);
+            put(url, image);
+            download.complete(image);
+            return Optional.of(image);
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            System.err.println("Failed to download image " + url + " for embedding: " + e.getMessage());
+            putFailure(url);
+            download.complete(null);
+            return Optional.empty();
+        } finally {
+            downloads.remove(url);
+        }
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("images", entries.size());
+        map.put("bytes", bytes);
+        map.put("maxBytes", maxBytes);
+        map.put("hits", hits.sum());
+        map.put("misses", misses.sum());
+        map.put("evictions", evictions.sum());
+        map.put("failures", failures.sum());
+        map.put("failedUrls", failedUntil.size());
+        map.put("failureHits", failureHits.sum());
+        return map;
+    }
+
+    private synchronized void putFailure(String url) {
+        failedUntil.remove(url);
+        failedUntil.put(url, System.currentTimeMillis() + failureTtlMillis);
+    }
+
+    private synchronized void put(String url, InlineImage image) {
+        if (image.bytes().length > maxBytes) {
+            return;
+        }
+        remove(url);
+        entries.put(url, new Entry(image, System.currentTimeMillis() + ttlMillis));
+        bytes += image.bytes().length;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().image().bytes().length;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private void remove(String url) {
+        Entry entry = entries.remove(url);
+        if (entry != null) {
+            bytes -= entry.image().bytes().length;
+        }
+    }
+
+    private static InlineImage download(String imageUrl) throws IOException {
+        URL url = new URL(imageUrl);
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(10000);
+        byte[] data;
+        try (InputStream in = connection.getInputStream()) {
+            data = in.readAllBytes();
+        }
+        String contentType = connection.getContentType();
+        if (contentType == null) {
+            contentType = "image/png";
+        }
+
+        String fileName = "image.png";
+        String path = url.getPath();
+        int lastSlash = path.lastIndexOf('/');
+        if (lastSlash >= 0 && lastSlash < path.length() - 1) {
+            fileName = path.substring(lastSlash + 1);
+        }
+
+        // the same URL always gets the same content id, so messages can be assembled from cached parts
+        String contentId = HashTool.sha256Hex(imageUrl).substring(0, 32) + "@sp";
+        return new InlineImage(imageUrl, contentId, contentType, fileName, data,
+                new DataHandler(new ByteArrayDataSource(data, contentType)));
+    }
+}
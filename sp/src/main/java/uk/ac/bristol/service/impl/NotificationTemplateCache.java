@@ -0,0 +1,155 @@
+package uk.ac.bristol.service.impl;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.ac.bristol.dao.ContactMapper;
+import uk.ac.bristol.pojo.Template;
+import uk.ac.bristol.util.TemplateRenderer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Notification templates indexed by weather type, severity and contact channel, then by asset type, with their
+ * title and body compiled by {@link TemplateRenderer}.
+ * <p>
+ * All templates are loaded with one query on first use and dropped whenever a template is written, so a fan-out
+ * formats every notification from memory. Lookups match like selectNotificationTemplateByTypes: severity and
+ * channel ignore case, and the weather type of a template only has to contain the requested one.
+ */
+@Component
+public class NotificationTemplateCache {
+
+    private final ContactMapper contactMapper;
+
+    // null until the first lookup after an invalidation
+    private volatile Snapshot snapshot;
+    // bumped by every invalidation so a load racing with a write is never published
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public record Entry(Template template, TemplateRenderer.Compiled title, TemplateRenderer.Compiled body) {
+    }
+
+    public NotificationTemplateCache(ContactMapper contactMapper) {
+        this.contactMapper = contactMapper;
+    }
+
+    /**
+     * Templates for the given warning and channel keyed by asset type id, empty if there is none.
+     */
+    public Map<String, Entry> getTemplatesByAssetType(String warningType, String severity, String channel) {
+        Snapshot current = current();
+        String key = lower(warningType) + '\u0000' + lower(severity) + '\u0000' + lower(channel);
+        Map<String, Entry> mapping = current.index.get(key);
+        if (mapping != null) {
+            hits.increment();
+            return mapping;
+        }
+        misses.increment();
+        return current.index.computeIfAbsent(key, k -> current.select(warningType, severity, channel));
+    }
+
+    /**
+     * Drops the cached templates now and again once the current transaction completes, so that a lookup from
+     * another thread in between cannot keep the state from before the commit.
+     */
+    public void invalidate() {
+        drop();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    drop();
+                }
+            });
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Snapshot current = snapshot;
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("loaded", current != null);
+        map.put("templates", current == null ? 0 : current.templates.size());
+        map.put("hits", h);
+        map.put("misses", m);
+        map.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        map.put("loads", loads.sum());
+        map.put("invalidations", invalidations.sum());
+        return map;
+    }
+
+    private void drop() {
+        generation.incrementAndGet();
+        snapshot = null;
+        invalidations.increment();
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (current == null) {
+                long g = generation.get();
+                loads.increment();
+                current = new Snapshot(contactMapper.selectNotificationTemplateByTypes(new Template()));
+                if (generation.get() == g) {
+                    snapshot = current;
+                }
+            }
+            return current;
+        }
+    }
+
+    private static String lower(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Snapshot {
+        private final List<Entry> templates;
+        private final Map<String, Map<String, Entry>> index = new ConcurrentHashMap<>();
+
+        private Snapshot(List<Template> templates) {
+            List<Entry> entries = new ArrayList<>(templates.size());
+            for (Template template : templates) {
+                entries.add(new Entry(template, compile(template, template.getTitle()), compile(template, template.getBody())));
+            }
+            this.templates = List.copyOf(entries);
+        }
+
+        // templates written before variables were checked still render, unknown placeholders are kept as they are
+        private static TemplateRenderer.Compiled compile(Template template, String source) {
+            try {
+                return TemplateRenderer.compile(source);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Notification template " + template.getId() + ": " + e.getMessage());
+                return TemplateRenderer.compile(source, false);
+            }
+        }
+
+        private Map<String, Entry> select(String warningType, String severity, String channel) {
+            Map<String, Entry> mapping = new HashMap<>();
+            for (Entry entry : templates) {
+                Template template = entry.template();
+                if ((warningType == null || warningType.isEmpty() || lower(template.getWarningType()).contains(lower(warningType)))
+                        && (severity == null || severity.isEmpty() || lower(template.getSeverity()).equals(lower(severity)))
+                        && (channel == null || channel.isEmpty() || lower(template.getContactChannel()).equals(lower(channel)))) {
+                    mapping.put(template.getAssetTypeId(), entry);
+                }
+            }
+            return Collections.unmodifiableMap(mapping);
+        }
+    }
+}
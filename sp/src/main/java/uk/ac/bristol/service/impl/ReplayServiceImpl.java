@@ -0,0 +1,244 @@
+package uk.ac.bristol.service.impl;
+
+import org.springframework.stereotype.Service;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.pojo.Warning;
+import uk.ac.bristol.service.FeedArchiveService;
+import uk.ac.bristol.service.ReplayService;
+import uk.ac.bristol.service.WarningService;
+import uk.ac.bristol.util.PipelineMetrics;
+import uk.ac.bristol.util.ReplayScope;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes archived Met Office payloads through the same parse, filter, store and fan-out stages as the crawler,
+ * either as fast as possible or at a speed-up factor of the original fetch intervals.
+ * <p>
+ * A replay is a dry run on its own thread inside a {@link ReplayScope}. Payloads are stored and fanned out into the
+ * replay schema, which is emptied when the replay starts and left for inspection when it ends, so each payload is
+ * compared with the one replayed before it and the live warnings are neither changed nor locked. Users and assets
+ * are still read from the live tables. Notifications are counted by the scope instead of being delivered, and stage
+ * metrics are recorded in the scope, the live crawler and fan-out workers keep delivering and reporting as usual
+ * meanwhile.
+ */
+@Service
+public class ReplayServiceImpl implements ReplayService {
+
+    private final WarningService warningService;
+    private final FeedArchiveService feedArchiveService;
+
+    private volatile Thread worker;
+    private volatile String status = "idle";
+    private volatile String source;
+    private volatile String error;
+    private volatile double speedup;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile ReplayScope scope;
+    private final AtomicLong payloadsTotal = new AtomicLong();
+    private final AtomicLong payloadsReplayed = new AtomicLong();
+    private final AtomicLong warningsParsed = new AtomicLong();
+    private final AtomicLong warningsChanged = new AtomicLong();
+
+    public ReplayServiceImpl(WarningService warningService, FeedArchiveService feedArchiveService) {
+        this.warningService = warningService;
+        this.feedArchiveService = feedArchiveService;
+    }
+
+    @Override
+    public synchronized Map<String, Object> startReplay(String directory, Instant from, Instant to, Double speedup) {
+        if (worker != null && worker.isAlive()) {
+            throw new SpExceptions.BusinessException("A replay is already running");
+        }
+        List<Payload> payloads = directory == null || directory.isBlank()
+                ? listArchivedPayloads(from, to)
+                : listDirectoryPayloads(Path.of(directory), from, to);
+        if (payloads.isEmpty()) {
+            throw new SpExceptions.NotFoundException("No payloads to replay");
+        }
+
+        this.source = directory == null || directory.isBlank() ? "archive" : directory;
+        this.speedup = speedup == null ? 0.0 : speedup;
+        this.status = "running";
+        this.error = null;
+        this.startedAt = Instant.now();
+        this.finishedAt = null;
+        this.scope = new ReplayScope();
+        payloadsTotal.set(payloads.size());
+        payloadsReplayed.set(0);
+        warningsParsed.set(0);
+        warningsChanged.set(0);
+
+        worker = new Thread(() -> run(payloads), "WarningReplay");
+        worker.setDaemon(true);
+        worker.start();
+        return getReplayReport();
+    }
+
+    @Override
+    public synchronized Map<String, Object> stopReplay() {
+        if (worker != null && worker.isAlive()) {
+            worker.interrupt();
+        }
+        return getReplayReport();
+    }
+
+    @Override
+    public Map<String, Object> getReplayReport() {
+        Instant end = finishedAt == null ? Instant.now() : finishedAt;
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("status", status);
+        map.put("source", source);
+        map.put("speedup", speedup);
+        map.put("error", error);
+        map.put("startedAt", startedAt);
+        map.put("finishedAt", finishedAt);
+        map.put("elapsedMillis", startedAt == null ? 0L : end.toEpochMilli() - startedAt.toEpochMilli());
+        map.put("payloadsTotal", payloadsTotal.get());
+        map.put("payloadsReplayed", payloadsReplayed.get());
+        map.put("warningsParsed", warningsParsed.get());
+        map.put("warningsChanged", warningsChanged.get());
+
+        ReplayScope current = scope;
+        map.put("notificationsDelivered", current == null ? Map.of() : current.getDeliveredNotifications());
+        map.put("stages", current == null ? Map.of() : current.getMetrics());
+        return map;
+    }
+
+    private void run(List<Payload> payloads) {
+        scope.open();
+        long wallStart = System.nanoTime();
+        Instant firstFetch = payloads.get(0).fetchTime();
+        try {
+            warningService.resetReplaySchema();
+            for (Payload payload : payloads) {
+                if (speedup > 0) {
+                    // keep the original spacing between fetches, compressed by the speed-up factor
+                    long offset = (long) ((payload.fetchTime().toEpochMilli() - firstFetch.toEpochMilli()) * 1_000_000 / speedup);
+                    long wait = wallStart + offset - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    }
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                replay(payload);
+                payloadsReplayed.incrementAndGet();
+            }
+            status = "finished";
+        } catch (InterruptedException e) {
+            status = "stopped";
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // interrupted within a fan-out
+                status = "stopped";
+                return;
+            }
+            status = "failed";
+            error = e.getMessage();
+            e.printStackTrace();
+        } finally {
+            scope.close();
+            finishedAt = Instant.now();
+            System.out.println("Weather warning replay " + status + " after " + payloadsReplayed.get() + " of " + payloadsTotal.get() + " payloads.");
+        }
+    }
+
+    private void replay(Payload payload) throws IOException {
+        List<Warning> warnings;
+        long start = PipelineMetrics.start();
+        try (InputStream in = payload.open()) {
+            warnings = Warning.parseWarningsFromGeoJSON(in);
+        }
+        PipelineMetrics.record(PipelineMetrics.PARSE, start, warnings.size());
+        warningsParsed.addAndGet(warnings.size());
+        if (warnings.isEmpty()) {
+            return;
+        }
+        warningsChanged.addAndGet(warningService.replayWarnings(warnings).size());
+    }
+
+    private List<Payload> listArchivedPayloads(Instant from, Instant to) {
+        List<Payload> payloads = new ArrayList<>();
+        for (Map<String, Object> fetch : feedArchiveService.getFetches(from, to, null)) {
+            String hash = (String) fetch.get("hash");
+            Instant fetchTime = toInstant(fetch.get("fetchTime"));
+            payloads.add(new Payload(fetchTime, () -> feedArchiveService.openPayload(hash)));
+        }
+        payloads.sort(Comparator.comparing(Payload::fetchTime));
+        return payloads;
+    }
+
+    // the legacy layout of the crawler: data/raw_<epoch millis>.json
+    private List<Payload> listDirectoryPayloads(Path dir, Instant from, Instant to) {
+        if (!Files.isDirectory(dir)) {
+            throw new SpExceptions.NotFoundException("Replay directory " + dir + " does not exist");
+        }
+        List<Payload> payloads = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "raw_*.json")) {
+            for (Path file : files) {
+                Instant fetchTime = parseFetchTime(file);
+                if ((from == null || !fetchTime.isBefore(from)) && (to == null || !fetchTime.isAfter(to))) {
+                    payloads.add(new Payload(fetchTime, () -> new BufferedInputStream(Files.newInputStream(file))));
+                }
+            }
+        } catch (IOException e) {
+            throw new SpExceptions.SystemException("Failed to list replay directory " + dir + ". " + e.getMessage(), e);
+        }
+        payloads.sort(Comparator.comparing(Payload::fetchTime));
+        return payloads;
+    }
+
+    private Instant parseFetchTime(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        try {
+            return Instant.ofEpochMilli(Long.parseLong(name.substring("raw_".length(), name.length() - ".json".length())));
+        } catch (NumberFormatException e) {
+            return Files.getLastModifiedTime(file).toInstant();
+        }
+    }
+
+    private Instant toInstant(Object value) {
+        if (value instanceof Instant instant) {
+            return instant;
+        }
+        if (value instanceof OffsetDateTime odt) {
+            return odt.toInstant();
+        }
+        if (value instanceof Timestamp ts) {
+            return ts.toInstant();
+        }
+        if (value instanceof LocalDateTime ldt) {
+            return ldt.atZone(ZoneId.systemDefault()).toInstant();
+        }
+        throw new SpExceptions.SystemException("Unexpected fetch time " + value);
+    }
+
+    private interface PayloadOpener {
+        InputStream open() throws IOException;
+    }
+
+    private record Payload(Instant fetchTime, PayloadOpener opener) {
+        InputStream open() throws IOException {
+            return opener.open();
+        }
+    }
+}
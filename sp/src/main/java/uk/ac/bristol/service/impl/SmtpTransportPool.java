@@ -0,0 +1,225 @@
+package uk.ac.bristol.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small pool of connected SMTP transports, so that emails are sent over open sessions instead of paying for a
+ * TLS handshake and login per message.
+ * <p>
+ * A {@link Lease} holds one transport for a batch of messages. Transports are retired after a number of messages
+ * or when they have been idle for too long, and a message that fails on a reused transport is retried once on a
+ * new connection, since the server may have dropped the session in between. Connection settings are taken from
+ * the configured {@link JavaMailSenderImpl}. Any other JavaMailSender is called once per message.
+ */
+@Component
+public class SmtpTransportPool {
+
+    private final JavaMailSender mailSender;
+    private final int maxMessagesPerConnection;
+    private final long idleTimeoutMillis;
+
+    // most recently returned first, so that the idle ones are the ones that get retired
+    private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final Semaphore connections;
+
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public SmtpTransportPool(JavaMailSender mailSender,
+                             @Value("${notification.email.smtp.pool-size:4}") int poolSize,
+                             @Value("${notification.email.smtp.max-messages-per-connection:100}") int maxMessagesPerConnection,
+                             @Value("${notification.email.smtp.idle-timeout:30000}") long idleTimeoutMillis) {
+        this.mailSender = mailSender;
+        this.connections = new Semaphore(Math.max(1, poolSize), true);
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * A lease on one transport, which is only taken on the first send. Closing the lease returns it to the pool.
+     */
+    public Lease lease() {
+        return new Lease();
+    }
+
+    @PreDestroy
+    public void close() {
+        PooledTransport transport;
+        while ((transport = idle.pollFirst()) != null) {
+            transport.close();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        long h = handshakes.sum();
+        long s = sent.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("pooled", mailSender instanceof JavaMailSenderImpl);
+        map.put("idleConnections", idle.size());
+        map.put("handshakes", h);
+        map.put("connectFailures", connectFailures.sum());
+        map.put("retries", retries.sum());
+        map.put("sent", s);
+        map.put("rejected", rejected.sum());
+        map.put("messagesPerConnection", h == 0 ? 0.0 : (double) s / h);
+        return map;
+    }
+
+    public final class Lease implements AutoCloseable {
+        private PooledTransport transport;
+        private boolean permit;
+
+        private Lease() {
+        }
+
+        public void send(MimeMessage message) throws MessagingException {
+            if (!(mailSender instanceof JavaMailSenderImpl)) {
+                mailSender.send(message);
+                sent.increment();
+                return;
+            }
+            if (message.getSentDate() == null) {
+                message.setSentDate(new Date());
+            }
+            message.saveChanges();
+            boolean reused = acquire();
+            try {
+                transport.send(message);
+            } catch (MessagingException e) {
+                if (e instanceof SendFailedException failed && failed.getInvalidAddresses() != null
+                        && failed.getInvalidAddresses().length > 0) {
+                    // the recipients were refused, the session itself is fine unless the server says otherwise
+                    rejected.increment();
+                    if (!transport.transport.isConnected()) {
+                        discard();
+                    }
+                    throw e;
+                }
+                discard();
+                if (!reused) {
+                    throw e;
+                }
+                retries.increment();
+                // not another idle transport, which may have been dropped by the server just the same
+                transport = connect();
+                try {
+                    transport.send(message);
+                } catch (MessagingException retry) {
+                    discard();
+                    throw retry;
+                }
+            }
+            sent.increment();
+            if (transport.messages >= maxMessagesPerConnection) {
+                discard();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (transport != null) {
+                transport.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(transport);
+                transport = null;
+            }
+            if (permit) {
+                permit = false;
+                connections.release();
+            }
+        }
+
+        // makes sure a connected transport is held, true if it was used before
+        private boolean acquire() throws MessagingException {
+            if (!permit) {
+                connections.acquireUninterruptibly();
+                permit = true;
+            }
+            if (transport != null) {
+                return true;
+            }
+            PooledTransport candidate;
+            while ((candidate = idle.pollFirst()) != null) {
+                if (System.currentTimeMillis() - candidate.lastUsed < idleTimeoutMillis && candidate.transport.isConnected()) {
+                    transport = candidate;
+                    return true;
+                }
+                candidate.close();
+            }
+            transport = connect();
+            return false;
+        }
+
+        private void discard() {
+            if (transport != null) {
+                transport.close();
+                transport = null;
+            }
+        }
+    }
+
+    private PooledTransport connect() throws MessagingException {
+        JavaMailSenderImpl impl = (JavaMailSenderImpl) mailSender;
+        String protocol = impl.getProtocol();
+        if (protocol == null) {
+            protocol = impl.getSession().getProperty("mail.transport.protocol");
+        }
+        Transport transport = impl.getSession().getTransport(protocol == null ? JavaMailSenderImpl.DEFAULT_PROTOCOL : protocol);
+        String username = impl.getUsername();
+        String password = impl.getPassword();
+        if ("".equals(username)) {
+            username = null;
+            if ("".equals(password)) {
+                password = null;
+            }
+        }
+        try {
+            transport.connect(impl.getHost(), impl.getPort(), username, password);
+        } catch (MessagingException e) {
+            connectFailures.increment();
+            throw e;
+        }
+        handshakes.increment();
+        return new PooledTransport(transport);
+    }
+
+    private static final class PooledTransport {
+        private final Transport transport;
+        private int messages;
+        private long lastUsed;
+
+        private PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        private void send(MimeMessage message) throws MessagingException {
+            messages++;
+            transport.sendMessage(message, message.getAllRecipients());
+        }
+
+        private void close() {
+            try {
+                transport.close();
+            } catch (MessagingException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package uk.ac.bristol.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Encoded map tiles keyed by zoom, column, row and owner, kept until the TTL within a bound on the cached bytes.
+ * <p>
+ * Every write to the assets or warnings invalidates the whole cache, since one asset or warning can be drawn on
+ * tiles at every zoom level. The TTL covers warnings starting or expiring without a write. A tile loaded while an
+ * invalidation happens is returned but not cached.
+ */
+@Component
+public class TileCache {
+
+    private record Entry(byte[] tile, long expiresAt) {
+    }
+
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    // bumped by every invalidation so a load racing with a write is never cached
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public TileCache(@Value("${metoffice.tiles.cache-max-bytes:33554432}") long maxBytes,
+                     @Value("${metoffice.tiles.cache-ttl:60000}") long ttlMillis) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * The cached tile for the key, or the tile from the loader, which is cached unless it was invalidated meanwhile.
+     */
+    public byte[] get(String key, Supplier<byte[]> loader) {
+        long g;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() - System.currentTimeMillis() > 0) {
+                hits.increment();
+                return entry.tile();
+            }
+            if (entry != null) {
+                remove(key);
+            }
+            g = generation;
+        }
+        misses.increment();
+        byte[] tile = loader.get();
+        if (tile == null) {
+            tile = new byte[0];
+        }
+        put(key, tile, g);
+        return tile;
+    }
+
+    /**
+     * Drops the cached tiles now and again once the current transaction completes, so that a tile loaded from
+     * another thread in between cannot keep the state from before the commit.
+     */
+    public void invalidate() {
+        drop();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    drop();
+                }
+            });
+        }
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("tiles", entries.size());
+        map.put("bytes", bytes);
+        map.put("maxBytes", maxBytes);
+        map.put("hits", h);
+        map.put("misses", m);
+        map.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        map.put("evictions", evictions.sum());
+        map.put("invalidations", invalidations.sum());
+        return map;
+    }
+
+    private synchronized void drop() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+        invalidations.increment();
+    }
+
+    private synchronized void put(String key, byte[] tile, long loadedAt) {
+        if (generation != loadedAt || tile.length > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(tile, System.currentTimeMillis() + ttlMillis));
+        bytes += tile.length;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().tile().length;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.tile().length;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package uk.ac.bristol.service.impl;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import uk.ac.bristol.dao.TileMapper;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.service.TileService;
+
+import java.util.Map;
+
+@Service
+public class TileServiceImpl implements TileService {
+
+    private static final int MAX_ZOOM = 22;
+    // below these zoom levels assets are drawn as clusters, then as centroids, and as their locations from there on
+    private static final int CENTROID_MIN_ZOOM = 10;
+    private static final int LOCATION_MIN_ZOOM = 14;
+    // below these zoom levels warnings are drawn with their coarse, then fine, areas
+    private static final int FINE_MIN_ZOOM = 8;
+    private static final int EXACT_MIN_ZOOM = 12;
+    // clusters are formed on a grid of this many cells along each side of a tile
+    private static final int CLUSTER_GRID = 64;
+    private static final double WEB_MERCATOR_WIDTH = 2 * 20037508.342789244;
+
+    private final TileMapper tileMapper;
+    private final TileCache tileCache;
+
+    public TileServiceImpl(TileMapper tileMapper, TileCache tileCache) {
+        this.tileMapper = tileMapper;
+        this.tileCache = tileCache;
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    @Override
+    public byte[] getTile(int z, int x, int y, String ownerId) {
+        if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+            throw new SpExceptions.BadRequestException("Tile " + z + "/" + x + "/" + y + " does not exist.");
+        }
+        String key = z + "/" + x + "/" + y + "/" + (ownerId == null ? "" : ownerId);
+        return tileCache.get(key, () -> tileMapper.selectTile(z, x, y, ownerId,
+                z < CENTROID_MIN_ZOOM ? "cluster" : z < LOCATION_MIN_ZOOM ? "centroid" : "location",
+                WEB_MERCATOR_WIDTH / (1 << z) / CLUSTER_GRID,
+                z < FINE_MIN_ZOOM ? "coarse" : z < EXACT_MIN_ZOOM ? "fine" : "exact"));
+    }
+
+    @Override
+    public Map<String, Object> getTileCacheStatistics() {
+        return tileCache.getStatistics();
+    }
+}
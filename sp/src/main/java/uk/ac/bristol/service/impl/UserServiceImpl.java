@@ -4,6 +4,7 @@ import com.password4j.Argon2Function;
 import com.password4j.Hash;
 import com.password4j.Password;
 import com.password4j.types.Argon2;
+import org.locationtech.jts.geom.Geometry;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,11 +32,13 @@ public class UserServiceImpl implements UserService {
     private final UserMapper userMapper;
     private final MetaDataMapper metaDataMapper;
     private final ContactMapper contactMapper;
+    private final TileCache tileCache;
 
-    public UserServiceImpl(UserMapper userMapper, MetaDataMapper metaDataMapper, ContactMapper contactMapper) {
+    public UserServiceImpl(UserMapper userMapper, MetaDataMapper metaDataMapper, ContactMapper contactMapper, TileCache tileCache) {
         this.userMapper = userMapper;
         this.metaDataMapper = metaDataMapper;
         this.contactMapper = contactMapper;
+        this.tileCache = tileCache;
     }
 
     // checks uid and password, returns a jwt token
@@ -184,8 +187,14 @@ public class UserServiceImpl implements UserService {
 
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     @Override
-    public List<UserWithAssets> groupUsersWithOwnedAssetsByWarningId(Integer limit, Long cursor, Long waringId, boolean getDiff, String newAreaAsJson) {
-        return userMapper.groupUsersWithOwnedAssetsByWarningId(limit, cursor, waringId, getDiff, newAreaAsJson);
+    public List<UserWithAssets> groupUsersWithOwnedAssetsByWarningId(Integer limit, Long cursor, Long cursorEnd, Long warningId, boolean getDiff, Geometry newArea, Geometry oldArea, boolean externalOnly) {
+        return userMapper.groupUsersWithOwnedAssetsByWarningId(limit, cursor, cursorEnd, warningId, getDiff, newArea, oldArea, externalOnly);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    @Override
+    public List<Long> getUserRowIdPartitionBounds(int partitions, Long warningId) {
+        return userMapper.selectUserRowIdPartitionBounds(partitions, warningId);
     }
 
     private Map<String, Integer> groupUserAddressPostcodeByOption(Map<String, Object> filters, String option) {
@@ -463,6 +472,8 @@ public class UserServiceImpl implements UserService {
             throw new SpExceptions.DeleteMethodException("Failed to delete users by ids due to misaligned deletion");
         }
         metaDataMapper.increaseTotalCountByTableName("users", -n1);
+        // the assets of the users are deleted with them
+        tileCache.invalidate();
         return n1;
     }
 
@@ -0,0 +1,492 @@
+package uk.ac.bristol.service.impl;
+
+import org.locationtech.jts.geom.Geometry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.ac.bristol.controller.Code;
+import uk.ac.bristol.dao.FanOutMapper;
+import uk.ac.bristol.dao.WarningMapper;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.pojo.UserWithAssets;
+import uk.ac.bristol.pojo.Warning;
+import uk.ac.bristol.service.ContactService;
+import uk.ac.bristol.service.UserService;
+import uk.ac.bristol.service.WarningFanOutService;
+import uk.ac.bristol.util.PipelineMetrics;
+import uk.ac.bristol.util.ReplayScope;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Notification fan-out stage of the warning ingest pipeline.
+ * <p>
+ * Persisted warnings are published as events once their transaction has committed. Events wait in a bounded
+ * queue and are consumed by a fixed pool of workers, each notifying the owners of affected assets page by page.
+ * A full queue blocks the publisher, so a slow fan-out pushes back on ingest instead of buffering without limit.
+ * <p>
+ * The affected users of one warning are split into user_row_id ranges of about equal size, each paged with its
+ * own cursor by a shared pool of partition threads, so a large fan-out is spread over cores and DB connections.
+ * Inbox messages of a range are inserted by a single statement that renders the templates in the database, then
+ * only users who want email, SMS or post are paged through Java.
+ * <p>
+ * Every page is checked against the notification ledger in one query, users already notified of the same revision
+ * of the warning on all their channels are skipped, so a fan-out retried after a crash resumes where it stopped.
+ * <p>
+ * Fan-outs are recorded in the transaction that stores the warning, and the cursor of every range is checkpointed
+ * after each page. A failed fan-out is queued again until it has been attempted fanout-max-attempts times, and
+ * unfinished fan-outs of the current revision of their warning are resumed on startup, so a restart repeats at most
+ * one page per range instead of the whole warning, and queued warnings are not lost. A finished fan-out removes the
+ * records of the earlier ones of its warning, which it has covered.
+ */
+@Service
+public class WarningFanOutServiceImpl implements WarningFanOutService {
+
+    @Value("${metoffice.pipeline.fanout-workers:4}")
+    private int workers;
+
+    @Value("${metoffice.pipeline.fanout-queue:256}")
+    private int capacity;
+
+    @Value("${metoffice.pipeline.fanout-parallelism:4}")
+    private int parallelism;
+
+    @Value("${metoffice.pipeline.fanout-partitions:16}")
+    private int partitions;
+
+    @Value("${metoffice.pipeline.database-inbox:true}")
+    private boolean databaseInbox;
+
+    @Value("${metoffice.pipeline.fanout-max-attempts:3}")
+    private int maxAttempts;
+
+    private final UserService userService;
+    private final ContactService contactService;
+    private final FanOutMapper fanOutMapper;
+    private final WarningMapper warningMapper;
+
+    private BlockingQueue<FanOutEvent> queue;
+    private final List<Thread> threads = new ArrayList<>();
+    private ExecutorService partitionPool;
+    private final Object idleMonitor = new Object();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong ranges = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    // fan-outs queued or running in this instance, which are not resumed a second time
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    public WarningFanOutServiceImpl(UserService userService, ContactService contactService, FanOutMapper fanOutMapper, WarningMapper warningMapper) {
+        this.userService = userService;
+        this.contactService = contactService;
+        this.fanOutMapper = fanOutMapper;
+        this.warningMapper = warningMapper;
+    }
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(capacity);
+        AtomicInteger partitionThreads = new AtomicInteger();
+        partitionPool = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "WarningFanOutPartition-" + partitionThreads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::work, "WarningFanOut-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        threads.forEach(Thread::interrupt);
+        partitionPool.shutdownNow();
+    }
+
+    /**
+     * Queues a warning for fan-out after the current transaction commits, or straight away outside a transaction.
+     * With a previous area only assets newly covered by the warning are notified. If the fan-out of an earlier
+     * revision has not finished, its owners may not have heard of the area it diffed against, so the diff starts from
+     * the area of the oldest unfinished fan-out instead, or notifies everybody if that one did. Within a
+     * {@link ReplayScope} the fan-out runs on the calling thread in the current transaction instead, which stores
+     * into the replay schema.
+     */
+    @Override
+    public void publish(Warning warning, Geometry previousArea) {
+        Geometry notifiedArea = lastNotifiedArea(warning, previousArea);
+        // committed or rolled back with the warning
+        Long fanOutId = fanOutMapper.insertFanOut(warning.getId(), warning.getContentHash(), notifiedArea);
+        if (ReplayScope.current() != null) {
+            try {
+                fanOut(warning, notifiedArea, fanOutId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SpExceptions.SystemException("Interrupted while replaying fan-out of warning " + warning.getId());
+            }
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(new FanOutEvent(warning, notifiedArea, fanOutId, PipelineMetrics.start(), 0));
+                }
+            });
+        } else {
+            enqueue(new FanOutEvent(warning, notifiedArea, fanOutId, PipelineMetrics.start(), 0));
+        }
+    }
+
+    // the area the owners were last notified of, that of the oldest unfinished fan-out of an earlier revision if any
+    private Geometry lastNotifiedArea(Warning warning, Geometry previousArea) {
+        if (previousArea == null) {
+            return null;
+        }
+        for (Map<String, Object> unfinished : fanOutMapper.selectOldestUnfinishedFanOut(warning.getId())) {
+            if (!Objects.equals(unfinished.get("revision"), warning.getContentHash())) {
+                return (Geometry) unfinished.get("previousArea");
+            }
+        }
+        return previousArea;
+    }
+
+    /**
+     * Queues the fan-outs left unfinished by a previous run, once mock data has been loaded and the schema is in place.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        try {
+            fanOutMapper.deleteSupersededFanOuts();
+            for (Map<String, Object> row : fanOutMapper.selectUnfinishedFanOuts(maxAttempts)) {
+                Long fanOutId = ((Number) row.get("rowId")).longValue();
+                if (inFlight.contains(fanOutId)) {
+                    continue;
+                }
+                List<Warning> list = warningMapper.selectWarningById(((Number) row.get("warningId")).longValue());
+                if (list.size() != 1) {
+                    continue;
+                }
+                // the ledger of the revision being resumed
+                Warning warning = list.get(0);
+                warning.setContentHash((String) row.get("revision"));
+                int attempts = row.get("attempts") == null ? 0 : ((Number) row.get("attempts")).intValue();
+                enqueue(new FanOutEvent(warning, (Geometry) row.get("previousArea"), fanOutId, PipelineMetrics.start(), attempts));
+                resumed.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Failed to resume unfinished fan-outs: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean awaitIdle(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (idleMonitor) {
+            while (pending.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                idleMonitor.wait(Math.max(1L, remaining / 1_000_000));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("workers", workers);
+        map.put("parallelism", parallelism);
+        map.put("partitions", partitions);
+        map.put("databaseInbox", databaseInbox);
+        map.put("queueCapacity", capacity);
+        map.put("queueSize", queue.size());
+        map.put("pending", pending.get());
+        map.put("published", published.get());
+        map.put("completed", completed.get());
+        map.put("failed", failed.get());
+        map.put("ranges", ranges.get());
+        map.put("skippedAsAlreadyNotified", skipped.get());
+        map.put("checkpoints", checkpoints.get());
+        map.put("resumed", resumed.get());
+        map.put("retried", retried.get());
+        return map;
+    }
+
+    private void enqueue(FanOutEvent event) {
+        if (event.fanOutId() != null) {
+            inFlight.add(event.fanOutId());
+        }
+        pending.incrementAndGet();
+        published.incrementAndGet();
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done();
+            throw new SpExceptions.SystemException("Interrupted while queueing fan-out of warning " + event.warning().getId());
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            FanOutEvent event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            PipelineMetrics.record(PipelineMetrics.QUEUE, event.queuedAt(), 1);
+            boolean requeued = false;
+            try {
+                // a retry is dropped once a newer revision has finished or superseded it, or its attempts are used up
+                if (event.attempts() == 0 || !fanOutMapper.selectRetryableFanOut(event.fanOutId(), maxAttempts).isEmpty()) {
+                    fanOut(event.warning(), event.previousArea(), event.fanOutId());
+                    completed.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                System.err.println("Failed to send notifications for warning " + event.warning().getId() + ": " + e.getMessage());
+                e.printStackTrace();
+                requeued = requeue(event);
+            } finally {
+                if (event.fanOutId() != null && !requeued) {
+                    inFlight.remove(event.fanOutId());
+                }
+                done();
+            }
+        }
+    }
+
+    // queues a failed fan-out again behind the others, a full queue leaves it to be resumed on the next start
+    private boolean requeue(FanOutEvent event) {
+        if (event.fanOutId() == null || event.attempts() + 1 >= maxAttempts) {
+            return false;
+        }
+        pending.incrementAndGet();
+        if (!queue.offer(new FanOutEvent(event.warning(), event.previousArea(), event.fanOutId(), PipelineMetrics.start(), event.attempts() + 1))) {
+            done();
+            System.err.println("Fan-out queue is full, warning " + event.warning().getId() + " is retried on the next start.");
+            return false;
+        }
+        retried.incrementAndGet();
+        return true;
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (idleMonitor) {
+                idleMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void fanOut(Warning warning, Geometry previousArea, Long fanOutId) throws InterruptedException {
+        long start = PipelineMetrics.start();
+        boolean getDiff = previousArea != null;
+        // the record is gone with its warning if that has been deleted since, nothing is checkpointed then
+        Long checkpointId = fanOutId != null && fanOutMapper.increaseFanOutAttempts(fanOutId) == 1 ? fanOutId : null;
+        List<Range> ranges = checkpointId == null
+                ? List.of()
+                : fanOutMapper.selectFanOutRanges(checkpointId).stream().map(Range::of).toList();
+        if (ranges.isEmpty()) {
+            ranges = split(warning);
+            if (checkpointId != null) {
+                fanOutMapper.insertFanOutRanges(checkpointId, ranges.stream().map(Range::toMap).toList());
+            }
+        }
+
+        // templates with variables registered in Java are rendered per user as before
+        boolean inboxInDatabase = databaseInbox && contactService.canInsertInboxMessagesInDatabase(warning);
+
+        int n = ranges.size();
+        Progress progress = new Progress(n);
+        List<Future<Integer>> futures = new ArrayList<>(n);
+        boolean replay = ReplayScope.current() != null;
+        for (Range range : ranges) {
+            if (range.done()) {
+                progress.complete(range.index());
+                continue;
+            }
+            Callable<Integer> task = () -> {
+                try {
+                    return fanOutRange(warning, previousArea, checkpointId, range, inboxInDatabase);
+                } finally {
+                    progress.complete(range.index());
+                }
+            };
+            if (replay) {
+                // the ranges of a replay share its thread and transaction
+                FutureTask<Integer> inline = new FutureTask<>(task);
+                inline.run();
+                futures.add(inline);
+            } else {
+                futures.add(partitionPool.submit(task));
+            }
+        }
+        count(this.ranges, futures.size());
+
+        int users = 0;
+        Exception failure = null;
+        for (Future<Integer> future : futures) {
+            try {
+                users += future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = (Exception) e.getCause();
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                throw e;
+            }
+        }
+        if (failure != null) {
+            throw new SpExceptions.SystemException("Fan-out of warning " + warning.getId() + " failed after "
+                    + progress.completedInOrder() + " of " + n + " user ranges completed in order: " + failure.getMessage(), failure);
+        }
+        if (checkpointId != null) {
+            fanOutMapper.deleteFinishedFanOuts(warning.getId(), checkpointId);
+        }
+        PipelineMetrics.record(PipelineMetrics.FANOUT, start, users);
+        if (users == 0) {
+            if (getDiff) {
+                System.out.println("No newly intersecting assets with updated warning " + warning.getId() + ", no notification has been sent.");
+            } else {
+                System.out.println("No users has asset intersecting with new warning " + warning.getId() + ", no notification has been sent.");
+            }
+        }
+    }
+
+    // range i covers (bounds[i - 1], bounds[i]], the last one is open so that owners added since are included
+    private List<Range> split(Warning warning) {
+        // split by the owners of hit assets, a diff only notifies some of them
+        List<Long> bounds = partitions <= 1
+                ? List.of()
+                : userService.getUserRowIdPartitionBounds(partitions, warning.getId());
+        int n = Math.max(1, bounds.size());
+        List<Range> ranges = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long from = i == 0 ? 0L : bounds.get(i - 1);
+            ranges.add(new Range(i, from, i == n - 1 ? null : bounds.get(i), from, 0, false));
+        }
+        return ranges;
+    }
+
+    // notifies the users of the range after its cursor, checkpointing every page, and returns how many there were
+    private int fanOutRange(Warning warning, Geometry previousArea, Long fanOutId, Range range, boolean inboxInDatabase) {
+        boolean getDiff = previousArea != null;
+        int limit = Code.PAGINATION_MAX_LIMIT;
+        long cursor = range.cursor();
+        int users = 0;
+        // the inbox messages of the whole range are committed before the first page moves the cursor
+        if (inboxInDatabase && cursor == range.start()) {
+            users = contactService.insertInboxMessagesForWarning(warning, previousArea, range.start(), range.end());
+        }
+        while (!Thread.currentThread().isInterrupted()) {
+            List<UserWithAssets> list = userService.groupUsersWithOwnedAssetsByWarningId(limit, cursor, range.end(), warning.getId(), getDiff, warning.getAreaGeometry(), previousArea, inboxInDatabase);
+            if (list.isEmpty()) break;
+            List<UserWithAssets> unsent = contactService.filterUnsentNotifications(warning, list, inboxInDatabase);
+            count(skipped, list.size() - unsent.size());
+            for (UserWithAssets uwa : unsent) {
+                if (inboxInDatabase) {
+                    contactService.sendExternalNotificationsToUser(warning, uwa);
+                } else {
+                    contactService.sendNotificationsToUser(warning, uwa);
+                }
+            }
+            if (!inboxInDatabase) {
+                users += list.size();
+            }
+            cursor = list.get(list.size() - 1).getUser().getRowId();
+            checkpoint(fanOutId, range, cursor, users, false);
+        }
+        if (!Thread.currentThread().isInterrupted()) {
+            checkpoint(fanOutId, range, cursor, users, true);
+        }
+        return users;
+    }
+
+    private void checkpoint(Long fanOutId, Range range, long cursor, int users, boolean done) {
+        if (fanOutId != null) {
+            fanOutMapper.updateFanOutRange(fanOutId, range.index(), cursor, range.users() + users, done);
+            count(checkpoints, 1);
+        }
+    }
+
+    // the statistics are those of the live fan-outs, a replay reports its own
+    private static void count(AtomicLong counter, long n) {
+        if (ReplayScope.current() == null) {
+            counter.addAndGet(n);
+        }
+    }
+
+    /**
+     * Ranges finish in any order, the number completed in order is how far the fan-out has got without gaps.
+     */
+    private static final class Progress {
+        private final boolean[] done;
+        private int completedInOrder;
+
+        private Progress(int ranges) {
+            this.done = new boolean[ranges];
+        }
+
+        private synchronized void complete(int index) {
+            done[index] = true;
+            while (completedInOrder < done.length && done[completedInOrder]) {
+                completedInOrder++;
+            }
+        }
+
+        private synchronized int completedInOrder() {
+            return completedInOrder;
+        }
+    }
+
+    // attempts is how often the fan-out has been run before, by this instance or by a previous one
+    private record FanOutEvent(Warning warning, Geometry previousArea, Long fanOutId, long queuedAt, int attempts) {
+    }
+
+    /**
+     * Users in (start, end] with the progress checkpointed so far, no end for the last range.
+     */
+    private record Range(int index, long start, Long end, long cursor, int users, boolean done) {
+
+        private static Range of(Map<String, Object> row) {
+            Number end = (Number) row.get("end");
+            return new Range(((Number) row.get("index")).intValue(), ((Number) row.get("start")).longValue(),
+                    end == null ? null : end.longValue(), ((Number) row.get("cursor")).longValue(),
+                    ((Number) row.get("users")).intValue(), (Boolean) row.get("done"));
+        }
+
+        // a HashMap as the end may be null
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("index", index);
+            map.put("start", start);
+            map.put("end", end);
+            map.put("cursor", cursor);
+            return map;
+        }
+    }
+}
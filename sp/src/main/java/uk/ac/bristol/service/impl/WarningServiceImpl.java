@@ -1,24 +1,28 @@
 package uk.ac.bristol.service.impl;
 
+import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Point;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import uk.ac.bristol.controller.Code;
 import uk.ac.bristol.dao.MetaDataMapper;
+import uk.ac.bristol.dao.Settings;
 import uk.ac.bristol.dao.WarningMapper;
 import uk.ac.bristol.exception.SpExceptions;
 import uk.ac.bristol.pojo.Asset;
-import uk.ac.bristol.pojo.UserWithAssets;
 import uk.ac.bristol.pojo.Warning;
-import uk.ac.bristol.service.ContactService;
-import uk.ac.bristol.service.UserService;
+import uk.ac.bristol.service.WarningFanOutService;
 import uk.ac.bristol.service.WarningService;
+import uk.ac.bristol.util.GeometryTool;
+import uk.ac.bristol.util.PipelineMetrics;
 import uk.ac.bristol.util.QueryTool;
+import uk.ac.bristol.util.ReplayScope;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -27,14 +31,21 @@ public class WarningServiceImpl implements WarningService {
 
     private final MetaDataMapper metaDataMapper;
     private final WarningMapper warningMapper;
-    private final UserService userService;
-    private final ContactService contactService;
+    private final WarningFanOutService warningFanOutService;
+    private final ActiveWarningIndex activeWarningIndex;
+    private final TileCache tileCache;
+    private final Settings settings;
 
-    public WarningServiceImpl(MetaDataMapper metaDataMapper, WarningMapper warningMapper, UserService userService, ContactService contactService) {
+    // keeps each multi-row staging insert well below the JDBC bind parameter limit
+    private static final int STAGING_BATCH_SIZE = 1000;
+
+    public WarningServiceImpl(MetaDataMapper metaDataMapper, WarningMapper warningMapper, WarningFanOutService warningFanOutService, ActiveWarningIndex activeWarningIndex, TileCache tileCache, Settings settings) {
         this.metaDataMapper = metaDataMapper;
         this.warningMapper = warningMapper;
-        this.userService = userService;
-        this.contactService = contactService;
+        this.warningFanOutService = warningFanOutService;
+        this.activeWarningIndex = activeWarningIndex;
+        this.tileCache = tileCache;
+        this.settings = settings;
     }
 
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
@@ -95,6 +106,18 @@ public class WarningServiceImpl implements WarningService {
                 limit, offset);
     }
 
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    @Override
+    public List<Warning> getLiveWarningsAtResolution(String resolution) {
+        if (resolution == null || resolution.isBlank()) {
+            resolution = "full";
+        }
+        if (!List.of("full", "fine", "coarse").contains(resolution)) {
+            throw new IllegalArgumentException("Unknown resolution " + resolution + ", expected one of full, fine and coarse");
+        }
+        return warningMapper.selectLiveWarningsAtResolution(resolution);
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     @Override
     public Warning getWarningById(Long id) {
@@ -110,67 +133,165 @@ public class WarningServiceImpl implements WarningService {
         return warningMapper.selectWarningsIntersectingWithGivenAsset(assetId);
     }
 
-    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    /**
+     * Answered by {@link ActiveWarningIndex} without a database round trip.
+     */
     @Override
-    public boolean storeWarningsAndSendNotifications(List<Warning> parsedWarnings) {
-        List<Warning> warningsToNotify = new ArrayList<>();
+    public List<Warning> getWarningsIntersectingWithGivenGeometry(Geometry geometry) {
+        return activeWarningIndex.getWarningsIntersecting(geometry);
+    }
+
+    @Override
+    public Map<String, Object> getActiveWarningIndexStatistics() {
+        return activeWarningIndex.getStatistics();
+    }
 
-        int s = 0;
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    @Override
+    public List<Warning> filterChangedWarnings(List<Warning> parsedWarnings) {
+        if (parsedWarnings.isEmpty()) {
+            return parsedWarnings;
+        }
+        Map<Long, String> storedHashes = new HashMap<>();
+        for (Map<String, Object> row : warningMapper.selectWarningContentHashes(parsedWarnings.stream().map(Warning::getId).toList())) {
+            storedHashes.put(((Number) row.get("id")).longValue(), (String) row.get("hash"));
+        }
+        List<Warning> changed = new ArrayList<>();
         for (Warning warning : parsedWarnings) {
-            s++;
-            // 1. new warning: send notifications
-            if (!warningMapper.testWarningExistence(warning.getId())) {
-                warningsToNotify.add(warning);
-                warningMapper.insertWarning(warning);
-                metaDataMapper.increaseTotalCountByTableName("weather_warnings", 1);
-            }
-            // 2. warning details updated: send notifications
-            else if (warningMapper.testWarningDetailDiff(warning)) {
-                warningsToNotify.add(warning);
-                warningMapper.updateWarning(warning);
-            }
-            // 3. warning area updated: send notifications to assets not intersecting with it beforehand
-            else if (warningMapper.testWarningAreaDiff(warning.getId(), warning.getAreaAsJson())) {
-                handleGroupedUsersWithRespectToPagination(warning, true);
-                warningMapper.updateWarning(warning);
-            } else {
-                s--;
+            String hash = warning.getContentHash();
+            if (hash == null || !hash.equals(storedHashes.get(warning.getId()))) {
+                changed.add(warning);
             }
         }
+        return changed;
+    }
 
-        System.out.println("Successfully inserted or updated " + s + " weather warning records at "
-                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+    /**
+     * Persists the feed and publishes fan-out events for warnings that need notifications.
+     * The events are only queued once this transaction has committed, notifications are sent by
+     * {@link WarningFanOutService} workers outside of it.
+     */
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public boolean storeWarningsAndSendNotifications(List<Warning> parsedWarnings) {
+        long start = PipelineMetrics.start();
+        try {
+            return storeWarningsAndPublish(parsedWarnings);
+        } finally {
+            PipelineMetrics.record(PipelineMetrics.STORE, start, parsedWarnings.size());
+        }
+    }
 
-        // send notifications for case 1 and 2 here
-        if (!warningsToNotify.isEmpty()) {
-            for (Warning warning : warningsToNotify) {
-                handleGroupedUsersWithRespectToPagination(warning, false);
-            }
-            return true;
+    /**
+     * Drops what the previous replay stored, a replay starts from no warnings like a crawler on an empty database.
+     */
+    @Override
+    public void resetReplaySchema() {
+        settings.createReplaySchema();
+    }
+
+    /**
+     * Filters, stores and fans out the feed like the crawler, but against the copies of the tables in the replay
+     * schema, see {@link Settings#createReplaySchema}. The transaction commits there, so the next payload is compared
+     * with this one and the live warnings are neither changed nor locked. Only runs inside a {@link ReplayScope},
+     * which has the fan-out happen on this thread within this transaction and counts the notifications instead.
+     */
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRES_NEW)
+    @Override
+    public List<Warning> replayWarnings(List<Warning> parsedWarnings) {
+        if (ReplayScope.current() == null) {
+            throw new SpExceptions.SystemException("Warnings can only be stored in the replay schema during a replay");
+        }
+        settings.useReplaySchema();
+
+        long start = PipelineMetrics.start();
+        List<Warning> changed = filterChangedWarnings(parsedWarnings);
+        PipelineMetrics.record(PipelineMetrics.FILTER, start, parsedWarnings.size());
+        if (!changed.isEmpty()) {
+            storeWarningsAndSendNotifications(changed);
         }
-        return false;
+        return changed;
     }
 
-    private void handleGroupedUsersWithRespectToPagination(Warning warning, boolean getDiff) {
-        int limit = Code.PAGINATION_MAX_LIMIT;
-        long cursor = 0L;
-        int length = 0;
-        do {
-            List<UserWithAssets> list = userService.groupUsersWithOwnedAssetsByWarningId(limit, cursor, warning.getId(), getDiff, warning.getAreaAsJson());
-            length = list.size();
-            if (length == 0) break;
-            for (UserWithAssets uwa : list) {
-                contactService.sendNotificationsToUser(warning, uwa);
+    private boolean storeWarningsAndPublish(List<Warning> parsedWarnings) {
+        // the same warning may appear more than once in a feed, the last one wins
+        Map<Long, Warning> warningsById = new LinkedHashMap<>();
+        for (Warning warning : parsedWarnings) {
+            warningsById.put(warning.getId(), warning);
+        }
+        if (warningsById.isEmpty()) {
+            return false;
+        }
+
+        // 1. load the whole feed into the staging table
+        List<Warning> staged = new ArrayList<>(warningsById.values());
+        for (int i = 0; i < staged.size(); i += STAGING_BATCH_SIZE) {
+            warningMapper.insertWarningsIntoStaging(staged.subList(i, Math.min(i + STAGING_BATCH_SIZE, staged.size())));
+        }
+
+        // 2. classify every staged warning against the live table in one statement
+        List<Long> newIds = new ArrayList<>();
+        List<Long> changedIds = new ArrayList<>();
+        List<Warning> warningsToNotify = new ArrayList<>();
+        List<Long> reshapedIds = new ArrayList<>();
+        for (Map<String, Object> row : warningMapper.classifyStagedWarnings()) {
+            Long id = ((Number) row.get("id")).longValue();
+            Warning warning = warningsById.get(id);
+            switch ((String) row.get("status")) {
+                // new warning: send notifications
+                case "new" -> {
+                    newIds.add(id);
+                    warningsToNotify.add(warning);
+                }
+                // warning details updated: send notifications
+                case "detail" -> {
+                    changedIds.add(id);
+                    warningsToNotify.add(warning);
+                }
+                // warning area updated: send notifications to assets not intersecting with it beforehand
+                case "area" -> {
+                    changedIds.add(id);
+                    reshapedIds.add(id);
+                }
+                // same content under a new feed hash: only refresh the stored copy
+                default -> changedIds.add(id);
             }
-            cursor = list.get(list.size() - 1).getUser().getRowId();
-        } while (length > 0);
-        if (cursor == 0L) {
-            if (getDiff) {
-                System.out.println("No newly intersecting assets with updated warning " + warning.getId() + ", no notification has been sent.");
-            } else {
-                System.out.println("No users has asset intersecting with new warning " + warning.getId() + ", no notification has been sent.");
+        }
+
+        // the previous area must be captured before it is overwritten, fan-out diffs against it later
+        Map<Long, Geometry> previousAreas = new HashMap<>();
+        if (!reshapedIds.isEmpty()) {
+            for (Warning previous : warningMapper.selectLiveWarningAreas(reshapedIds)) {
+                previousAreas.put(previous.getId(), previous.getAreaGeometry());
             }
         }
+
+        // 3. apply inserts and updates set-wise
+        if (!newIds.isEmpty()) {
+            int n = warningMapper.insertNewWarningsFromStaging(newIds);
+            metaDataMapper.increaseTotalCountByTableName("weather_warnings", n);
+        }
+        if (!changedIds.isEmpty()) {
+            warningMapper.updateWarningsFromStaging(changedIds);
+        }
+        warningMapper.clearWarningStaging();
+        if (ReplayScope.current() == null) {
+            // a replay stores into its own schema, the live index and tiles have not changed
+            activeWarningIndex.rebuildAfterCommit();
+            tileCache.invalidate();
+        }
+
+        System.out.println("Successfully inserted or updated " + (newIds.size() + changedIds.size()) + " weather warning records at "
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+
+        // 4. hand notifications over to the fan-out stage
+        for (Long id : reshapedIds) {
+            warningFanOutService.publish(warningsById.get(id), previousAreas.getOrDefault(id, GeometryTool.emptyMultiPolygon()));
+        }
+        for (Warning warning : warningsToNotify) {
+            warningFanOutService.publish(warning, null);
+        }
+        return !warningsToNotify.isEmpty() || !reshapedIds.isEmpty();
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
@@ -178,19 +299,27 @@ public class WarningServiceImpl implements WarningService {
     public int insertWarning(Warning warning) {
         int n = warningMapper.insertWarning(warning);
         metaDataMapper.increaseTotalCountByTableName("weather_warnings", n);
+        activeWarningIndex.rebuildAfterCommit();
+        tileCache.invalidate();
         return n;
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
     @Override
     public int updateWarning(Warning warning) {
-        return warningMapper.updateWarning(warning);
+        int n = warningMapper.updateWarning(warning);
+        activeWarningIndex.rebuildAfterCommit();
+        tileCache.invalidate();
+        return n;
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRES_NEW)
     @Override
     public int deleteWarningByIDs(Long[] ids) {
-        return warningMapper.deleteWarningByIDs(ids);
+        int n = warningMapper.deleteWarningByIDs(ids);
+        activeWarningIndex.rebuildAfterCommit();
+        tileCache.invalidate();
+        return n;
     }
 
     @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRES_NEW)
@@ -198,19 +327,29 @@ public class WarningServiceImpl implements WarningService {
     public int deleteWarningByIDs(List<Long> ids) {
         int n = warningMapper.deleteWarningByIDs(ids);
         metaDataMapper.increaseTotalCountByTableName("weather_warnings", -n);
+        activeWarningIndex.rebuildAfterCommit();
+        tileCache.invalidate();
         return n;
     }
 
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRES_NEW)
+    @Override
+    public int deleteExpiredAssetWarningHits() {
+        return warningMapper.deleteExpiredAssetWarningHits();
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     @Override
     public String getRegionNameGivenAsset(Asset asset) {
+        if (asset.getRegion() != null) {
+            return asset.getRegion();
+        }
         Point centroid = asset.getLocationCentroid();
-        String geoJsonPoint = String.format(
-                "{\"type\":\"Point\",\"coordinates\":[%f,%f]}",
-                centroid.getX(), centroid.getY()
-        );
+        if (centroid == null) {
+            return null;
+        }
         List<Map<String, Object>> regions =
-                warningMapper.selectIntersectingRegionsGivenGeometry(geoJsonPoint);
+                warningMapper.selectIntersectingRegionsGivenGeometry(centroid);
         return regions.isEmpty() ? null : (String) regions.get(0).get("name");
     }
 
@@ -0,0 +1,84 @@
+package uk.ac.bristol.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.ByteOrderValues;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.geojson.GeoJsonReader;
+import org.locationtech.jts.io.geojson.GeoJsonWriter;
+
+import java.util.Map;
+
+/**
+ * Conversions between JTS geometries, WKB used towards PostGIS and GeoJSON used at the HTTP edge.
+ * All geometries are in WGS 84 (SRID 4326) like the geometry columns of the database.
+ */
+public final class GeometryTool {
+
+    public static final int SRID = 4326;
+    public static final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), SRID);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final GeoJsonWriter geoJsonWriter = new GeoJsonWriter();
+
+    static {
+        geoJsonWriter.setEncodeCRS(false);
+    }
+
+    private GeometryTool() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static Geometry emptyMultiPolygon() {
+        return geometryFactory.createMultiPolygon();
+    }
+
+    // WKB readers and writers keep state between calls, so one is created per conversion
+
+    public static Geometry fromWKB(byte[] wkb) {
+        try {
+            return new WKBReader(geometryFactory).read(wkb);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid WKB geometry. " + e.getMessage(), e);
+        }
+    }
+
+    public static byte[] toWKB(Geometry geometry) {
+        return new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN).write(geometry);
+    }
+
+    public static Geometry fromGeoJson(String geoJson) {
+        try {
+            return new GeoJsonReader(geometryFactory).read(geoJson);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid GeoJSON geometry. " + e.getMessage(), e);
+        }
+    }
+
+    public static Geometry fromGeoJson(Map<String, Object> geoJson) {
+        try {
+            return fromGeoJson(objectMapper.writeValueAsString(geoJson));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid GeoJSON geometry. " + e.getMessage(), e);
+        }
+    }
+
+    public static String toGeoJson(Geometry geometry) {
+        return geoJsonWriter.write(geometry);
+    }
+
+    public static Map<String, Object> toGeoJsonMap(Geometry geometry) {
+        try {
+            return objectMapper.readValue(toGeoJson(geometry), new TypeReference<>() {
+            });
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
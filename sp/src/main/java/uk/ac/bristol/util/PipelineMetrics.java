@@ -0,0 +1,135 @@
+package uk.ac.bristol.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide throughput and latency counters for the stages of the warning ingest pipeline.
+ * <p>
+ * Latencies are kept in power-of-two nanosecond buckets, so recording is lock free and percentiles are
+ * reported as the upper bound of the bucket they fall into.
+ * <p>
+ * A thread can bind its own {@link Recording}, its stages are then recorded there instead, which keeps the
+ * figures of a replay apart from those of the live pipeline.
+ */
+public final class PipelineMetrics {
+
+    public static final String PARSE = "parse";
+    public static final String FILTER = "filter";
+    public static final String STORE = "store";
+    public static final String QUEUE = "queue";
+    public static final String FANOUT = "fanout";
+    public static final String NOTIFY = "notify";
+    public static final String DELIVER = "deliver";
+    public static final String EMAIL = "email";
+
+    private static final Recording global = new Recording();
+    private static final ThreadLocal<Recording> bound = new ThreadLocal<>();
+
+    private PipelineMetrics() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records one invocation of a stage that started at {@code startNanos} and handled {@code items} items.
+     */
+    public static void record(String stage, long startNanos, long items) {
+        Recording recording = bound.get();
+        (recording == null ? global : recording).record(stage, startNanos, items);
+    }
+
+    public static void reset() {
+        global.stages.clear();
+    }
+
+    public static Map<String, Object> snapshot() {
+        return global.snapshot();
+    }
+
+    /**
+     * Records the stages of the current thread in the given recording until {@link #unbind()}.
+     */
+    public static void bind(Recording recording) {
+        bound.set(recording);
+    }
+
+    public static void unbind() {
+        bound.remove();
+    }
+
+    /**
+     * A set of stage counters, the process-wide one or one bound to a thread.
+     */
+    public static final class Recording {
+        private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+
+        private void record(String stage, long startNanos, long items) {
+            stages.computeIfAbsent(stage, k -> new Stage()).record(System.nanoTime() - startNanos, items);
+        }
+
+        public Map<String, Object> snapshot() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (String name : new String[]{PARSE, FILTER, STORE, QUEUE, FANOUT, NOTIFY, DELIVER, EMAIL}) {
+                Stage stage = stages.get(name);
+                if (stage != null) {
+                    map.put(name, stage.snapshot());
+                }
+            }
+            stages.forEach((name, stage) -> map.putIfAbsent(name, stage.snapshot()));
+            return map;
+        }
+    }
+
+    private static final class Stage {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        private void record(long nanos, long n) {
+            calls.increment();
+            items.add(n);
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(nanos, 1L)) - 1);
+        }
+
+        private Map<String, Object> snapshot() {
+            long c = calls.sum();
+            long i = items.sum();
+            long total = totalNanos.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("calls", c);
+            map.put("items", i);
+            map.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(total));
+            map.put("itemsPerSecond", total == 0 ? 0.0 : i * 1e9 / total);
+            map.put("meanMicros", c == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(total / c));
+            map.put("p50Micros", percentileMicros(c, 0.50));
+            map.put("p99Micros", percentileMicros(c, 0.99));
+            map.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+            return map;
+        }
+
+        private long percentileMicros(long count, double percentile) {
+            long rank = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int b = 0; b < buckets.length(); b++) {
+                seen += buckets.get(b);
+                if (seen >= rank && seen > 0) {
+                    return TimeUnit.NANOSECONDS.toMicros(1L << Math.min(b + 1, 62));
+                }
+            }
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package uk.ac.bristol.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A replay of archived feeds, bound to the thread running it.
+ * <p>
+ * While a scope is open on a thread, warnings stored from it are fanned out on that thread, notifications are
+ * counted here instead of being delivered, and pipeline stages are recorded in the metrics of the scope.
+ * Other threads, such as the crawler and the fan-out workers, are not affected.
+ */
+public final class ReplayScope implements AutoCloseable {
+
+    private static final ThreadLocal<ReplayScope> current = new ThreadLocal<>();
+
+    private final PipelineMetrics.Recording metrics = new PipelineMetrics.Recording();
+    private final Map<String, LongAdder> delivered = new ConcurrentHashMap<>();
+
+    /**
+     * Opens a scope on the current thread, closing it restores the live behaviour.
+     */
+    public ReplayScope open() {
+        if (current.get() != null) {
+            throw new IllegalStateException("A replay is already running on this thread");
+        }
+        current.set(this);
+        PipelineMetrics.bind(metrics);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (current.get() == this) {
+            current.remove();
+            PipelineMetrics.unbind();
+        }
+    }
+
+    /**
+     * The scope open on the current thread, null outside a replay.
+     */
+    public static ReplayScope current() {
+        return current.get();
+    }
+
+    public void deliver(String channel) {
+        delivered.computeIfAbsent(channel, k -> new LongAdder()).increment();
+    }
+
+    public Map<String, Long> getDeliveredNotifications() {
+        Map<String, Long> map = new TreeMap<>();
+        delivered.forEach((channel, count) -> map.put(channel, count.sum()));
+        return map;
+    }
+
+    public Map<String, Object> getMetrics() {
+        return metrics.snapshot();
+    }
+}
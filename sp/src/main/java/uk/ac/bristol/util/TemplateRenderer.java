@@ -0,0 +1,166 @@
+package uk.ac.bristol.util;
+
+import uk.ac.bristol.pojo.Asset;
+import uk.ac.bristol.pojo.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Notification templates with {{variable}} placeholders, compiled once into literal segments and variable
+ * lookups so that rendering is a single pass appending into the caller's buffer.
+ * <p>
+ * Variables are resolved against the user and asset being notified. The built-in ones are {{asset_model}},
+ * {{contact_name}} and {{post_town}}, more can be added with {@link #register}.
+ */
+public final class TemplateRenderer {
+
+    @FunctionalInterface
+    public interface Variable {
+        String resolve(User user, Asset asset);
+    }
+
+    private static final Map<String, Variable> variables = new ConcurrentHashMap<>();
+    private static final Map<String, Variable> builtIns = Map.of(
+            "asset_model", (user, asset) -> asset.getName(),
+            "contact_name", (user, asset) -> user.getName(),
+            "post_town", (user, asset) -> user.getAddress() == null ? null : user.getAddress().get("city"));
+
+    static {
+        variables.putAll(builtIns);
+    }
+
+    private TemplateRenderer() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static void register(String name, Variable variable) {
+        variables.put(name, variable);
+    }
+
+    /**
+     * Removes a registered variable, a built-in one registered again goes back to its built-in lookup.
+     */
+    public static void unregister(String name) {
+        Variable builtIn = builtIns.get(name);
+        if (builtIn == null) {
+            variables.remove(name);
+        } else {
+            variables.put(name, builtIn);
+        }
+    }
+
+    public static Set<String> getVariableNames() {
+        return new TreeSet<>(variables.keySet());
+    }
+
+    /**
+     * Whether the variable is one of the built-in ones and has not been registered again since.
+     */
+    public static boolean isBuiltIn(String name) {
+        Variable variable = builtIns.get(name);
+        return variable != null && variable == variables.get(name);
+    }
+
+    /**
+     * Compiles a template, placeholders of unknown variables are rejected with an IllegalArgumentException.
+     */
+    public static Compiled compile(String source) {
+        return compile(source, true);
+    }
+
+    /**
+     * Compiles a template. Unless {@code strict}, placeholders of unknown variables are kept verbatim in the
+     * output, which is how templates stored before variables were checked have always rendered.
+     */
+    public static Compiled compile(String source, boolean strict) {
+        if (source == null) {
+            return new Compiled(new String[]{""}, new String[0], new Variable[0]);
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Variable> lookups = new ArrayList<>();
+        Set<String> unknown = new TreeSet<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < source.length()) {
+            int open = source.indexOf("{{", i);
+            int close = open < 0 ? -1 : source.indexOf("}}", open + 2);
+            if (close < 0) {
+                literal.append(source, i, source.length());
+                break;
+            }
+            literal.append(source, i, open);
+            String name = source.substring(open + 2, close).trim();
+            Variable variable = variables.get(name);
+            if (variable == null) {
+                unknown.add(name);
+                literal.append(source, open, close + 2);
+            } else {
+                literals.add(literal.toString());
+                names.add(name);
+                lookups.add(variable);
+                literal.setLength(0);
+            }
+            i = close + 2;
+        }
+        if (strict && !unknown.isEmpty()) {
+            throw new IllegalArgumentException("Unknown template variables " + unknown + ", supported variables are " + getVariableNames());
+        }
+        literals.add(literal.toString());
+        return new Compiled(literals.toArray(new String[0]), names.toArray(new String[0]), lookups.toArray(new Variable[0]));
+    }
+
+    public static final class Compiled {
+        // literals[i] precedes lookups[i], the last literal follows the last lookup
+        private final String[] literals;
+        private final String[] names;
+        private final Variable[] lookups;
+        private final int literalLength;
+
+        private Compiled(String[] literals, String[] names, Variable[] lookups) {
+            this.literals = literals;
+            this.names = names;
+            this.lookups = lookups;
+            int n = 0;
+            for (String literal : literals) {
+                n += literal.length();
+            }
+            this.literalLength = n;
+        }
+
+        public StringBuilder renderTo(StringBuilder out, User user, Asset asset) {
+            out.ensureCapacity(out.length() + literalLength + 32 * lookups.length);
+            for (int i = 0; i < lookups.length; i++) {
+                out.append(literals[i]);
+                String value = lookups[i].resolve(user, asset);
+                if (value != null) {
+                    out.append(value);
+                }
+            }
+            return out.append(literals[lookups.length]);
+        }
+
+        public String render(User user, Asset asset) {
+            return renderTo(new StringBuilder(), user, asset).toString();
+        }
+
+        /**
+         * The literal segments, one more than the variables, for rendering the template somewhere else.
+         */
+        public String[] getLiterals() {
+            return literals.clone();
+        }
+
+        /**
+         * The names of the variables in order of appearance, the i-th one follows the i-th literal.
+         */
+        public String[] getVariableNames() {
+            return names.clone();
+        }
+    }
+}
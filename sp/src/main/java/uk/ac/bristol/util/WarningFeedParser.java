@@ -0,0 +1,236 @@
+package uk.ac.bristol.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import uk.ac.bristol.pojo.Warning;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streaming parser for the Met Office GeoJSON feed.
+ * <p>
+ * Features are read token by token, properties are written straight into {@link Warning} fields and
+ * coordinates straight into JTS geometries, so only one feature is held in memory at a time regardless
+ * of the size of the feed. While reading, a SHA-256 content hash of the fields that end up in the database
+ * is computed for every feature.
+ */
+public final class WarningFeedParser {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final GeometryFactory geometryFactory = GeometryTool.geometryFactory;
+
+    private WarningFeedParser() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static List<Warning> parse(InputStream in) throws IOException {
+        List<Warning> warnings = new ArrayList<>();
+        parse(in, warnings::add);
+        return warnings;
+    }
+
+    public static List<Warning> parse(String GeoJSON) throws IOException {
+        List<Warning> warnings = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(GeoJSON)) {
+            parseFeatureCollection(parser, warnings::add);
+        }
+        return warnings;
+    }
+
+    /**
+     * Hands every parsed warning to the consumer as soon as its feature has been read.
+     */
+    public static void parse(InputStream in, Consumer<Warning> consumer) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            parseFeatureCollection(parser, consumer);
+        }
+    }
+
+    private static void parseFeatureCollection(JsonParser parser, Consumer<Warning> consumer) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("features".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    consumer.accept(parseFeature(parser));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Warning parseFeature(JsonParser parser) throws IOException {
+        Warning warning = new Warning();
+        MessageDigest digest = HashTool.sha256();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("properties".equals(field) && token == JsonToken.START_OBJECT) {
+                parseProperties(parser, warning, digest);
+            } else if ("geometry".equals(field) && token == JsonToken.START_OBJECT) {
+                warning.setAreaGeometry(parseGeometry(parser, digest));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (warning.getId() == null) {
+            throw new JsonParseException(parser, "Feature without OBJECTID in weather warning feed");
+        }
+        warning.setContentHash(HashTool.toHex(digest.digest()));
+        return warning;
+    }
+
+    private static void parseProperties(JsonParser parser, Warning warning, MessageDigest digest) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "OBJECTID" -> warning.setId(token == JsonToken.VALUE_NULL ? null : parser.getValueAsLong());
+                case "weathertype" -> warning.setWeatherType(parser.getValueAsString());
+                case "warninglevel" -> warning.setWarningLevel(parser.getValueAsString());
+                case "warningheadline" -> warning.setWarningHeadLine(parser.getValueAsString());
+                case "validfromdate" -> warning.setValidFrom(token == JsonToken.VALUE_NULL ? null : Instant.ofEpochMilli(parser.getValueAsLong()));
+                case "validtodate" -> warning.setValidTo(token == JsonToken.VALUE_NULL ? null : Instant.ofEpochMilli(parser.getValueAsLong()));
+                case "warningImpact" -> warning.setWarningImpact(parser.getValueAsString());
+                case "warningLikelihood" -> warning.setWarningLikelihood(parser.getValueAsString());
+                case "affectedAreas" -> warning.setAffectedAreas(parser.getValueAsString());
+                case "whatToExpect" -> warning.setWhatToExpect(parser.getValueAsString());
+                case "warningFurtherDetails" -> warning.setWarningFurtherDetails(parser.getValueAsString());
+                case "warningUpdateDescription" -> warning.setWarningUpdateDescription(parser.getValueAsString());
+                default -> {
+                    // metadata such as issue or modification dates is not persisted and not hashed
+                    parser.skipChildren();
+                    continue;
+                }
+            }
+            hashToken(digest, field, parser);
+        }
+    }
+
+    private static Geometry parseGeometry(JsonParser parser, MessageDigest digest) throws IOException {
+        String type = null;
+        Object coordinates = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("type".equals(field)) {
+                type = parser.getValueAsString();
+                hashToken(digest, field, parser);
+            } else if ("coordinates".equals(field) && token == JsonToken.START_ARRAY) {
+                coordinates = parseCoordinates(parser, digest);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (type == null || coordinates == null) {
+            return null;
+        }
+        return buildGeometry(parser, type, coordinates);
+    }
+
+    /**
+     * Reads a nested coordinates array whose current token is the opening bracket.
+     * Returns a {@link Coordinate} for a position, a {@link Coordinate} array for a list of positions,
+     * and lists of those for deeper nesting.
+     */
+    private static Object parseCoordinates(JsonParser parser, MessageDigest digest) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT) {
+            double x = parser.getDoubleValue();
+            hashToken(digest, null, parser);
+            expectNumber(parser, parser.nextToken());
+            double y = parser.getDoubleValue();
+            hashToken(digest, null, parser);
+            // ignore altitude and other extra ordinates
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                parser.skipChildren();
+            }
+            return new Coordinate(x, y);
+        }
+
+        List<Object> children = new ArrayList<>();
+        while (token == JsonToken.START_ARRAY) {
+            children.add(parseCoordinates(parser, digest));
+            token = parser.nextToken();
+        }
+        expect(parser, token, JsonToken.END_ARRAY);
+        if (!children.isEmpty() && children.get(0) instanceof Coordinate) {
+            return children.toArray(new Coordinate[0]);
+        }
+        return children;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Geometry buildGeometry(JsonParser parser, String type, Object coordinates) throws IOException {
+        try {
+            return switch (type) {
+                case "Point" -> geometryFactory.createPoint((Coordinate) coordinates);
+                case "MultiPoint" -> geometryFactory.createMultiPointFromCoords((Coordinate[]) coordinates);
+                case "LineString" -> geometryFactory.createLineString((Coordinate[]) coordinates);
+                case "MultiLineString" -> geometryFactory.createMultiLineString(
+                        ((List<Coordinate[]>) coordinates).stream()
+                                .map(geometryFactory::createLineString)
+                                .toArray(LineString[]::new));
+                case "Polygon" -> createPolygon((List<Coordinate[]>) coordinates);
+                case "MultiPolygon" -> geometryFactory.createMultiPolygon(
+                        ((List<List<Coordinate[]>>) coordinates).stream()
+                                .map(WarningFeedParser::createPolygon)
+                                .toArray(Polygon[]::new));
+                default -> throw new JsonParseException(parser, "Unsupported geometry type " + type + " in weather warning feed");
+            };
+        } catch (ClassCastException | IllegalArgumentException e) {
+            throw new JsonParseException(parser, "Malformed coordinates for geometry type " + type + " in weather warning feed", e);
+        }
+    }
+
+    private static Polygon createPolygon(List<Coordinate[]> rings) {
+        if (rings.isEmpty()) {
+            return geometryFactory.createPolygon();
+        }
+        LinearRing shell = geometryFactory.createLinearRing(rings.get(0));
+        LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 1; i < rings.size(); i++) {
+            holes[i - 1] = geometryFactory.createLinearRing(rings.get(i));
+        }
+        return geometryFactory.createPolygon(shell, holes);
+    }
+
+    private static void hashToken(MessageDigest digest, String field, JsonParser parser) throws IOException {
+        if (field != null) {
+            digest.update(field.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) parser.currentTokenId());
+        if (parser.currentToken() != JsonToken.VALUE_NULL) {
+            digest.update(parser.getText().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual + " in weather warning feed");
+        }
+    }
+
+    private static void expectNumber(JsonParser parser, JsonToken actual) throws JsonParseException {
+        if (actual != JsonToken.VALUE_NUMBER_FLOAT && actual != JsonToken.VALUE_NUMBER_INT) {
+            throw new JsonParseException(parser, "Expected a coordinate but found " + actual + " in weather warning feed");
+        }
+    }
+}
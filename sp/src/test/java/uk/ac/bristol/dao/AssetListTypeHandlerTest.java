@@ -0,0 +1,55 @@
+package uk.ac.bristol.dao;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.pojo.Asset;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AssetListTypeHandlerTest {
+
+    @Test
+    void testReadsJsonAgg() {
+        // as printed by json_agg(json_build_object(...)) for two assets, one without a type,
+        // with lastModified formatted by to_char as in groupUsersWithOwnedAssetsByWarningId
+        String json = "[{\"rowId\" : 3, \"id\" : \"asset_3\", \"name\" : \"Reservoir 7\", \"typeId\" : \"type_001\", \"ownerId\" : \"user_1\", "
+                + "\"capacityLitres\" : 5000, \"material\" : \"concrete\", \"status\" : \"active\", \"installedAt\" : \"2020-03-01\", "
+                + "\"lastInspection\" : null, \"lastModified\" : \"2025-07-22T09:15:30.123456Z\", "
+                + "\"type\" : {\"rowId\" : 1, \"id\" : \"type_001\", \"name\" : \"Reservoir\", \"description\" : null}}, "
+                + "{\"rowId\" : 9, \"id\" : \"asset_9\", \"name\" : \"Tank\", \"typeId\" : null, \"ownerId\" : \"user_1\", "
+                + "\"capacityLitres\" : null, \"material\" : null, \"status\" : null, \"installedAt\" : null, "
+                + "\"lastInspection\" : null, \"lastModified\" : null, \"type\" : null}]";
+
+        List<Asset> assets = AssetListTypeHandler.toAssets(json);
+
+        assertThat(assets).hasSize(2);
+        Asset first = assets.get(0);
+        assertThat(first.getId()).isEqualTo("asset_3");
+        assertThat(first.getName()).isEqualTo("Reservoir 7");
+        assertThat(first.getTypeId()).isEqualTo("type_001");
+        assertThat(first.getCapacityLitres()).isEqualTo(5000L);
+        assertThat(first.getInstalledAt()).isEqualTo(LocalDate.of(2020, 3, 1));
+        assertThat(first.getLastModified()).isEqualTo(Instant.parse("2025-07-22T09:15:30.123456Z"));
+        assertThat(first.getType().getName()).isEqualTo("Reservoir");
+        assertThat(first.getLocationGeometry()).isNull();
+        assertThat(assets.get(1).getType()).isNull();
+    }
+
+    @Test
+    void testTimestampWithoutOffsetIsRejected() {
+        // what json_build_object prints for a timestamp without time zone column, hence the to_char in the query
+        String json = "[{\"id\" : \"asset_3\", \"lastModified\" : \"2025-07-22T10:15:30.123456\"}]";
+
+        assertThatThrownBy(() -> AssetListTypeHandler.toAssets(json)).isInstanceOf(SpExceptions.SystemException.class);
+    }
+
+    @Test
+    void testNullIsEmpty() {
+        assertThat(AssetListTypeHandler.toAssets(null)).isEmpty();
+    }
+}
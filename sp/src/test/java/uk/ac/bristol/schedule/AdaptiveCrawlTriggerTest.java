@@ -0,0 +1,84 @@
+package uk.ac.bristol.schedule;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.support.SimpleTriggerContext;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveCrawlTriggerTest {
+
+    private AdaptiveCrawlTrigger newTrigger() {
+        // no jitter so intervals are deterministic
+        return new AdaptiveCrawlTrigger(60_000, 1_800_000, 600_000, 2.0, 0.0);
+    }
+
+    private long interval(AdaptiveCrawlTrigger trigger) {
+        return (Long) trigger.getStatistics().get("intervalMillis");
+    }
+
+    @Test
+    public void testBacksOffWhenQuiet() {
+        AdaptiveCrawlTrigger trigger = newTrigger();
+        assertEquals(600_000L, interval(trigger));
+        trigger.onFeedUnchanged(0);
+        assertEquals(1_200_000L, interval(trigger));
+        trigger.onFeedUnchanged(0);
+        assertEquals(1_800_000L, interval(trigger));
+        assertEquals(2, trigger.getStatistics().get("quietPolls"));
+    }
+
+    @Test
+    public void testSpeedsUpWhenFeedChanges() {
+        AdaptiveCrawlTrigger trigger = newTrigger();
+        trigger.onFeedUnchanged(0);
+        trigger.onFeedChanged(0);
+        assertEquals(60_000L, interval(trigger));
+        assertEquals("feed changed on last poll", trigger.getStatistics().get("reason"));
+    }
+
+    @Test
+    public void testSevereWarningsCapBackoff() {
+        AdaptiveCrawlTrigger trigger = newTrigger();
+        trigger.onFeedChanged(2);
+        for (int i = 0; i < 10; i++) {
+            trigger.onFeedUnchanged(2);
+        }
+        assertEquals(300_000L, interval(trigger));
+        assertTrue(((String) trigger.getStatistics().get("reason")).contains("amber or red"));
+    }
+
+    @Test
+    public void testFailureKeepsInterval() {
+        AdaptiveCrawlTrigger trigger = newTrigger();
+        trigger.onFailure("timeout");
+        assertEquals(600_000L, interval(trigger));
+    }
+
+    @Test
+    public void testNextExecutionTime() {
+        AdaptiveCrawlTrigger trigger = newTrigger();
+        Date now = new Date();
+        assertFalse(trigger.nextExecutionTime(new SimpleTriggerContext()).after(new Date(now.getTime() + 1000)));
+
+        trigger.onFeedChanged(0);
+        Date next = trigger.nextExecutionTime(new SimpleTriggerContext(now, now, now));
+        assertEquals(now.getTime() + 60_000L, next.getTime());
+    }
+
+    @Test
+    public void testJitterStaysWithinBounds() {
+        AdaptiveCrawlTrigger trigger = new AdaptiveCrawlTrigger(60_000, 1_800_000, 600_000, 1.5, 0.2);
+        for (int i = 0; i < 100; i++) {
+            trigger.onFailure("timeout");
+            long delay = (Long) trigger.getStatistics().get("nextDelayMillis");
+            assertTrue(delay >= 480_000L && delay <= 720_000L);
+        }
+    }
+
+    @Test
+    public void testInvalidBounds() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveCrawlTrigger(600_000, 60_000, 600_000, 1.5, 0.1));
+    }
+}
@@ -0,0 +1,204 @@
+package uk.ac.bristol.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.ac.bristol.dao.WarningMapper;
+import uk.ac.bristol.pojo.Warning;
+import uk.ac.bristol.service.impl.ActiveWarningIndex;
+import uk.ac.bristol.util.GeometryTool;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class ActiveWarningIndexTest {
+
+    private final List<Warning> stored = new ArrayList<>();
+    private WarningMapper warningMapper;
+
+    @BeforeEach
+    void setUp() {
+        warningMapper = mock(WarningMapper.class);
+        when(warningMapper.selectUnexpiredWarnings()).thenAnswer(invocation -> new ArrayList<>(stored));
+    }
+
+    private static Geometry square(double x, double y, double size) {
+        Polygon polygon = GeometryTool.geometryFactory.createPolygon(new Coordinate[]{
+                new Coordinate(x, y), new Coordinate(x + size, y), new Coordinate(x + size, y + size),
+                new Coordinate(x, y + size), new Coordinate(x, y)});
+        return GeometryTool.geometryFactory.createMultiPolygon(new Polygon[]{polygon});
+    }
+
+    private static Geometry point(double x, double y) {
+        return GeometryTool.geometryFactory.createPoint(new Coordinate(x, y));
+    }
+
+    private Warning store(long id, Geometry area, Instant validFrom, Instant validTo) {
+        Warning warning = new Warning();
+        warning.setId(id);
+        warning.setAreaGeometry(area);
+        warning.setValidFrom(validFrom);
+        warning.setValidTo(validTo);
+        stored.add(warning);
+        return warning;
+    }
+
+    private Warning store(long id, Geometry area) {
+        Instant now = Instant.now();
+        return store(id, area, now.minus(Duration.ofHours(1)), now.plus(Duration.ofHours(1)));
+    }
+
+    @Test
+    void testOnlyLiveIntersectingWarningsAreReturned() {
+        Instant now = Instant.now();
+        store(3L, square(-1, 51, 1));
+        store(1L, square(-1.5, 51.5, 1));
+        store(2L, square(5, 55, 1));
+        // not started yet, and expired since the index was built
+        store(4L, square(-1, 51, 1), now.plus(Duration.ofHours(1)), now.plus(Duration.ofHours(2)));
+        store(5L, square(-1, 51, 1), now.minus(Duration.ofHours(2)), now.minus(Duration.ofHours(1)));
+        ActiveWarningIndex index = new ActiveWarningIndex(warningMapper, 60000);
+
+        assertThat(index.getWarningsIntersecting(point(-0.7, 51.7))).extracting(Warning::getId).containsExactly(1L, 3L);
+        assertThat(index.getWarningsIntersecting(point(-0.2, 51.2))).extracting(Warning::getId).containsExactly(3L);
+        assertThat(index.getWarningsIntersecting(square(5.5, 55.5, 2))).extracting(Warning::getId).containsExactly(2L);
+        assertThat(index.getWarningsIntersecting(point(3, 53))).isEmpty();
+        assertThat(index.getWarningsIntersecting(null)).isEmpty();
+        verify(warningMapper, times(1)).selectUnexpiredWarnings();
+    }
+
+    @Test
+    void testEnvelopeHitOutsideTheAreaIsNotReturned() {
+        // an L shape, the point is inside its envelope but not inside the shape
+        Geometry l = square(0, 0, 1).union(square(1, 0, 1)).union(square(0, 1, 1));
+        store(1L, l);
+        ActiveWarningIndex index = new ActiveWarningIndex(warningMapper, 60000);
+
+        assertThat(index.getWarningsIntersecting(point(1.5, 1.5))).isEmpty();
+        assertThat(index.getWarningsIntersecting(point(0.5, 1.5))).hasSize(1);
+    }
+
+    @Test
+    void testRebuildSwapsInWrittenWarnings() {
+        store(1L, square(0, 0, 1));
+        ActiveWarningIndex index = new ActiveWarningIndex(warningMapper, 60000);
+        assertThat(index.getWarningsIntersecting(point(0.5, 0.5))).hasSize(1);
+
+        stored.clear();
+        store(2L, square(0, 0, 1));
+        // outside a transaction the rebuild is immediate
+        index.rebuildAfterCommit();
+
+        assertThat(index.getWarningsIntersecting(point(0.5, 0.5))).extracting(Warning::getId).containsExactly(2L);
+        assertThat(index.getStatistics()).containsEntry("warnings", 1).containsEntry("rebuilds", 2L);
+    }
+
+    @Test
+    void testStaleIndexIsRefreshed() {
+        store(1L, square(0, 0, 1));
+        ActiveWarningIndex index = new ActiveWarningIndex(warningMapper, 0);
+
+        index.getWarningsIntersecting(point(0.5, 0.5));
+        index.getWarningsIntersecting(point(0.5, 0.5));
+
+        verify(warningMapper, timeout(5000).times(2)).selectUnexpiredWarnings();
+        index.stop();
+    }
+
+    @Test
+    void testStaleLookupsDoNotWaitForTheRefresh() throws InterruptedException {
+        store(1L, square(0, 0, 1));
+        ActiveWarningIndex index = new ActiveWarningIndex(warningMapper, 0);
+        assertThat(index.getWarningsIntersecting(point(0.5, 0.5))).hasSize(1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(warningMapper.selectUnexpiredWarnings()).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return List.of();
+        });
+        // served from the stale index while the refresh is held
+        assertThat(index.getWarningsIntersecting(point(0.5, 0.5))).hasSize(1);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(index.getWarningsIntersecting(point(0.5, 0.5))).hasSize(1);
+        verify(warningMapper, times(2)).selectUnexpiredWarnings();
+
+        release.countDown();
+        verify(warningMapper, timeout(5000).times(2)).selectUnexpiredWarnings();
+        index.stop();
+    }
+
+    @Test
+    void testFailedRebuildAfterCommitKeepsThePreviousIndex() {
+        store(1L, square(0, 0, 1));
+        ActiveWarningIndex index = new ActiveWarningIndex(warningMapper, 60000);
+        assertThat(index.getWarningsIntersecting(point(0.5, 0.5))).hasSize(1);
+        when(warningMapper.selectUnexpiredWarnings()).thenThrow(new RuntimeException("connection refused"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            index.rebuildAfterCommit();
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(index.getWarningsIntersecting(point(0.5, 0.5))).hasSize(1);
+        assertThat(index.getStatistics()).containsEntry("rebuilds", 1L).containsEntry("failedRebuilds", 1L);
+    }
+
+    /**
+     * Lookups of random points against 300 warnings spread over the UK, against testing every warning area in turn.
+     * The SQL path is compared in WarningServiceTest.benchmarkIntersectingWarnings, which needs the database.
+     * Run with {@code mvn test -Dtest=ActiveWarningIndexTest -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkLookups() {
+        Random random = new Random(42);
+        for (long id = 1; id <= 300; id++) {
+            store(id, square(-6 + random.nextDouble() * 7, 50 + random.nextDouble() * 8, 0.2 + random.nextDouble()));
+        }
+        ActiveWarningIndex index = new ActiveWarningIndex(warningMapper, Long.MAX_VALUE);
+        int lookups = 200_000;
+        Geometry[] points = new Geometry[lookups];
+        for (int i = 0; i < lookups; i++) {
+            points[i] = point(-6 + random.nextDouble() * 8, 50 + random.nextDouble() * 9);
+        }
+        long found = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (Geometry point : points) {
+                found += index.getWarningsIntersecting(point).size();
+            }
+            long indexed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Geometry point : points) {
+                for (Warning warning : stored) {
+                    if (warning.getAreaGeometry().intersects(point)) {
+                        found--;
+                    }
+                }
+            }
+            long scanned = System.nanoTime() - start;
+            System.out.printf("%d lookups: index %d ns per lookup, scan of every area %d ns per lookup%n",
+                    lookups, indexed / lookups, scanned / lookups);
+        }
+        assertThat(found).isZero();
+    }
+}
@@ -3,6 +3,7 @@ package uk.ac.bristol.service;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.transaction.annotation.Transactional;
@@ -35,6 +36,9 @@ public class AssetServiceTest {
     @Autowired
     private AssetService assetService;
 
+    @Autowired
+    private WarningService warningService;
+
     @BeforeAll
     public void init() throws IOException {
         mockDataInitializer.forceReload();
@@ -203,6 +207,47 @@ public class AssetServiceTest {
         assertThat(groups).isEmpty(); // Since no data for regions, likely empty
     }
 
+    @Test
+    void testStoredRegionMatchesTheRegionOfTheCentroid() {
+        assertThat(assetService.updateAssetCentroidsAndRegions()).isEqualTo(53);
+        for (Asset asset : assetService.getAssets(null, null, null, null)) {
+            String stored = asset.getRegion();
+            asset.setRegion(null);
+            assertThat(stored).isEqualTo(warningService.getRegionNameGivenAsset(asset));
+        }
+    }
+
+    /**
+     * The region tile grouped on the stored regions, against one region query per asset as it was paged before.
+     * Run with {@code mvn test -Dtest=AssetServiceTest#benchmarkGroupAssetLocationByRegion -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkGroupAssetLocationByRegion() {
+        List<Asset> assets = assetService.getAssets(null, null, null, null);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            Map<String, Integer> perAsset = new HashMap<>();
+            for (Asset asset : assets) {
+                asset.setRegion(null);
+                String name = warningService.getRegionNameGivenAsset(asset);
+                if (name != null && !name.isBlank()) {
+                    perAsset.merge(name, 1, Integer::sum);
+                }
+            }
+            long perAssetNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Map<String, Integer> grouped = assetService.groupAssetLocationByRegion(null);
+            long groupedNanos = System.nanoTime() - start;
+
+            assertThat(grouped.values().stream().mapToInt(Integer::intValue).sum())
+                    .isEqualTo(perAsset.values().stream().mapToInt(Integer::intValue).sum());
+            System.out.printf("%d assets: query per asset %d ms, grouped on stored regions %d ms%n",
+                    assets.size(), perAssetNanos / 1_000_000, groupedNanos / 1_000_000);
+        }
+    }
+
     @Test
     void testCountAssetsWithFilter() {
         int count = assetService.countAssetsWithFilter(null);
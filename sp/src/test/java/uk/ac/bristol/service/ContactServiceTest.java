@@ -0,0 +1,134 @@
+package uk.ac.bristol.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import uk.ac.bristol.MockDataInitializer;
+import uk.ac.bristol.dao.ContactMapper;
+import uk.ac.bristol.pojo.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Per-user cost of formatting a notification with one template query per user, as formatNotification did
+ * before templates were cached, against the cached lookup, and inbox rows per second written by the per-user
+ * loop against the single insert rendering templates in the database.
+ * Run with {@code mvn test -Dtest=ContactServiceTest -Dbenchmark=true}, it needs the database.
+ */
+@SpringBootTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class ContactServiceTest {
+
+    @Autowired
+    private MockDataInitializer mockDataInitializer;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ContactMapper contactMapper;
+
+    @Autowired
+    private WarningService warningService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private AssetService assetService;
+
+    @BeforeAll
+    public void init() throws IOException {
+        mockDataInitializer.forceReload();
+    }
+
+    @Test
+    void benchmarkFormatNotification() {
+        Warning warning = warningService.getWarningsIncludingOutdated(null, null, 1, null).get(0);
+        List<UserWithAssets> users = userService.getUsers(null, null, 200, null).stream()
+                .map(user -> new UserWithAssets(user, assetService.getAssetsByOwnerId(user.getId(), null, null, null)))
+                .filter(uwa -> !uwa.getAssets().isEmpty())
+                .toList();
+        assertThat(users).isNotEmpty();
+
+        int rounds = 20;
+        for (int i = 0; i < 2; i++) {
+            users.forEach(uwa -> formatUncached(warning, uwa));
+            users.forEach(uwa -> contactService.formatNotification(warning, uwa, "email"));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            users.forEach(uwa -> formatUncached(warning, uwa));
+        }
+        long uncached = (System.nanoTime() - start) / ((long) rounds * users.size());
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            users.forEach(uwa -> contactService.formatNotification(warning, uwa, "email"));
+        }
+        long cached = (System.nanoTime() - start) / ((long) rounds * users.size());
+
+        System.out.printf("%d users: one template query per user %d us/user, cached templates %d us/user%n",
+                users.size(), uncached / 1000, cached / 1000);
+        System.out.println(contactService.getNotificationTemplateCacheStatistics());
+    }
+
+    @Test
+    void benchmarkInboxFanOut() {
+        contactService.setLocalSink(true);
+        Warning warning = warningService.getWarningsIncludingOutdated(null, null, 1, null).get(0);
+        List<UserWithAssets> users = new ArrayList<>();
+        long cursor = 0L;
+        List<UserWithAssets> page;
+        while (!(page = userService.groupUsersWithOwnedAssetsByWarningId(500, cursor, null, warning.getId(), false, warning.getAreaGeometry(), null, false)).isEmpty()) {
+            users.addAll(page);
+            cursor = page.get(page.size() - 1).getUser().getRowId();
+        }
+        assertThat(users).isNotEmpty();
+        assertThat(contactService.canInsertInboxMessagesInDatabase(warning)).isTrue();
+
+        int rounds = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            users.forEach(uwa -> contactService.sendNotificationsToUser(warning, uwa));
+        }
+        long loop = System.nanoTime() - start;
+        int inserted = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            inserted += contactService.insertInboxMessagesForWarning(warning, null, 0L, null);
+        }
+        long database = System.nanoTime() - start;
+
+        assertThat(inserted).isEqualTo(rounds * users.size());
+        System.out.printf("%d users: per-user loop %d rows/s, insert ... select %d rows/s%n",
+                users.size(), rounds * users.size() * 1_000_000_000L / loop, inserted * 1_000_000_000L / database);
+        contactService.setLocalSink(false);
+    }
+
+    private String formatUncached(Warning warning, UserWithAssets uwa) {
+        List<Template> templates = contactMapper.selectNotificationTemplateByTypes(
+                new Template(null, warning.getWeatherType(), warning.getWarningLevel(), "email"));
+        Map<String, Template> mapping = new HashMap<>();
+        for (Template template : templates) {
+            mapping.put(template.getAssetTypeId(), template);
+        }
+        StringBuilder body = new StringBuilder();
+        for (Asset asset : uwa.getAssets()) {
+            Template template = mapping.get(asset.getTypeId());
+            if (template != null) {
+                body.append(template.getBody().replace("{{asset_model}}", asset.getName())).append(System.lineSeparator());
+            }
+        }
+        return body.toString();
+    }
+}
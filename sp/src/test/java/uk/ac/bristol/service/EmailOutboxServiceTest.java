@@ -0,0 +1,295 @@
+package uk.ac.bristol.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import uk.ac.bristol.dao.EmailOutboxMapper;
+import uk.ac.bristol.service.impl.EmailOutboxServiceImpl;
+import uk.ac.bristol.service.impl.EmailSender;
+import uk.ac.bristol.service.impl.InlineImageCache;
+import uk.ac.bristol.service.impl.SmtpTransportPool;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Sends claimed outbox rows through {@link EmailSender} to an SMTP stand-in listening on localhost.
+ */
+public class EmailOutboxServiceTest {
+
+    private SmtpStandIn smtp;
+    private EmailOutboxMapper mapper;
+    private SmtpTransportPool transportPool;
+    private EmailSender emailSender;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        smtp = new SmtpStandIn();
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("localhost");
+        mailSender.setPort(smtp.port());
+        transportPool = new SmtpTransportPool(mailSender, 2, 4, 30000);
+        emailSender = new EmailSender(mailSender, new InlineImageCache(1 << 20, 60000, 60000), transportPool, "sender@example.com", "http://localhost:8080", false);
+        mapper = mock(EmailOutboxMapper.class);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        transportPool.close();
+        smtp.close();
+    }
+
+    private EmailOutboxServiceImpl service(double ratePerSecond) {
+        return new EmailOutboxServiceImpl(mapper, emailSender, 0, 20, ratePerSecond, 3, 30000, 3600000, 300000, 5000, 7);
+    }
+
+    private static Map<String, Object> email(long rowId, String address, int attempts) {
+        Map<String, Object> email = new HashMap<>();
+        email.put("rowId", rowId);
+        email.put("toUserId", "user_" + rowId);
+        email.put("address", address);
+        email.put("title", "Rain warning " + rowId);
+        email.put("body", "<h3>Dear user " + rowId + ":</h3><p>Protect your asset.</p>");
+        email.put("attempts", attempts);
+        return email;
+    }
+
+    @Test
+    void testClaimedEmailsAreSentAndMarked() {
+        when(mapper.claimEmails(anyInt(), anyDouble())).thenReturn(List.of(email(1, "a@example.com", 1), email(2, "b@example.com", 1)));
+
+        assertThat(service(0).sendDueEmails()).isEqualTo(2);
+
+        verify(mapper).markSent(1L);
+        verify(mapper).markSent(2L);
+        verify(mapper, never()).markFailed(any(), any(), anyDouble(), anyBoolean());
+        assertThat(smtp.messages).hasSize(2);
+        assertThat(smtp.messages.get(0)).contains("Subject: Rain warning 1").contains("Dear user 1");
+        assertThat(smtp.recipients).containsExactly("a@example.com", "b@example.com");
+        assertThat(smtp.sessions.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testBatchesShareSessionsUpToTheMessageLimit() {
+        List<Map<String, Object>> batch = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            batch.add(email(i, "r" + i + "@example.com", 1));
+        }
+        when(mapper.claimEmails(anyInt(), anyDouble())).thenReturn(batch, batch.subList(0, 2));
+
+        EmailOutboxServiceImpl service = service(0);
+        service.sendDueEmails();
+        service.sendDueEmails();
+
+        // 4 + 2 on the first batch, the second batch reuses the open session
+        assertThat(smtp.messages).hasSize(8);
+        assertThat(smtp.sessions.get()).isEqualTo(2);
+        assertThat(transportPool.getStatistics()).containsEntry("handshakes", 2L).containsEntry("sent", 8L);
+    }
+
+    @Test
+    void testDroppedSessionIsReconnected() {
+        when(mapper.claimEmails(anyInt(), anyDouble())).thenReturn(List.of(email(1, "a@example.com", 1)), List.of(email(2, "b@example.com", 1)));
+
+        EmailOutboxServiceImpl service = service(0);
+        service.sendDueEmails();
+        smtp.dropSessions();
+        service.sendDueEmails();
+
+        verify(mapper).markSent(1L);
+        verify(mapper).markSent(2L);
+        assertThat(smtp.recipients).containsExactly("a@example.com", "b@example.com");
+        assertThat(transportPool.getStatistics()).containsEntry("handshakes", 2L);
+    }
+
+    @Test
+    void testMessageFailingOnADroppedSessionIsRetried() {
+        smtp.messagesPerSession = 2;
+        when(mapper.claimEmails(anyInt(), anyDouble())).thenReturn(List.of(email(1, "a@example.com", 1), email(2, "b@example.com", 1), email(3, "c@example.com", 1)));
+
+        service(0).sendDueEmails();
+
+        verify(mapper, never()).markFailed(any(), any(), anyDouble(), anyBoolean());
+        assertThat(smtp.messages).hasSize(3);
+        assertThat(smtp.messages.get(2)).contains("Rain warning 3");
+        assertThat(transportPool.getStatistics()).containsEntry("handshakes", 2L).containsEntry("retries", 1L);
+    }
+
+    @Test
+    void testRetryOpensANewSessionInsteadOfAnotherIdleOne() throws MessagingException {
+        smtp.messagesPerSession = 1;
+        // two sessions that have used up their message each, both returned to the pool
+        try (SmtpTransportPool.Lease first = transportPool.lease(); SmtpTransportPool.Lease second = transportPool.lease()) {
+            first.send(message("a@example.com"));
+            second.send(message("b@example.com"));
+        }
+
+        try (SmtpTransportPool.Lease lease = transportPool.lease()) {
+            lease.send(message("c@example.com"));
+        }
+
+        assertThat(smtp.messages).hasSize(3);
+        assertThat(transportPool.getStatistics()).containsEntry("handshakes", 3L).containsEntry("retries", 1L);
+    }
+
+    private static MimeMessage message(String address) throws MessagingException {
+        MimeMessage message = new JavaMailSenderImpl().createMimeMessage();
+        message.setFrom("sender@example.com");
+        message.setRecipients(Message.RecipientType.TO, address);
+        message.setSubject("Rain warning");
+        message.setText("Protect your asset.");
+        return message;
+    }
+
+    @Test
+    void testRejectedEmailIsRetriedWithBackoffThenDeadLettered() {
+        smtp.reject.add("bounce@example.com");
+        when(mapper.claimEmails(anyInt(), anyDouble())).thenReturn(List.of(
+                email(1, "bounce@example.com", 1),
+                email(2, "bounce@example.com", 2),
+                email(3, "bounce@example.com", 3),
+                email(4, "ok@example.com", 1)));
+
+        service(0).sendDueEmails();
+
+        verify(mapper).markFailed(eq(1L), anyString(), eq(30.0), eq(false));
+        verify(mapper).markFailed(eq(2L), anyString(), eq(60.0), eq(false));
+        verify(mapper).markFailed(eq(3L), anyString(), eq(120.0), eq(true));
+        verify(mapper).markSent(4L);
+        assertThat(transportPool.getStatistics()).containsEntry("rejected", 3L);
+    }
+
+    @Test
+    void testSendRateIsLimited() {
+        List<Map<String, Object>> batch = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            batch.add(email(i, "r" + i + "@example.com", 1));
+        }
+        when(mapper.claimEmails(anyInt(), anyDouble())).thenReturn(batch);
+
+        long start = System.nanoTime();
+        service(20).sendDueEmails();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // the first permit is immediate, the other five are 50 ms apart
+        assertThat(elapsedMillis).isGreaterThanOrEqualTo(240);
+        assertThat(smtp.messages).hasSize(6);
+    }
+
+    /**
+     * Just enough SMTP to accept messages, rejecting recipients listed in {@link #reject}.
+     */
+    private static final class SmtpStandIn implements Closeable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final Thread thread = new Thread(this::serve, "SmtpStandIn");
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final List<String> recipients = new CopyOnWriteArrayList<>();
+        final Set<String> reject = Collections.synchronizedSet(new HashSet<>());
+        final AtomicInteger sessions = new AtomicInteger();
+        // sessions are closed without a reply once they have accepted this many messages
+        volatile int messagesPerSession = Integer.MAX_VALUE;
+        private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+
+        private SmtpStandIn() throws IOException {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void serve() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    sessions.incrementAndGet();
+                    open.add(socket);
+                    Thread session = new Thread(() -> {
+                        try (socket) {
+                            session(socket);
+                        } catch (IOException ignored) {
+                        } finally {
+                            open.remove(socket);
+                        }
+                    }, "SmtpStandInSession");
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        // as if the server timed out every open session
+        void dropSessions() {
+            for (Socket socket : open) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void session(Socket socket) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            reply(out, "220 localhost SMTP stand-in");
+            int accepted = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.toUpperCase(Locale.ROOT);
+                if (command.startsWith("RCPT TO:")) {
+                    String address = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+                    if (reject.contains(address)) {
+                        reply(out, "550 mailbox unavailable");
+                    } else {
+                        recipients.add(address);
+                        reply(out, "250 OK");
+                    }
+                } else if (command.startsWith("DATA")) {
+                    if (accepted == messagesPerSession) {
+                        return;
+                    }
+                    accepted++;
+                    reply(out, "354 end with <CRLF>.<CRLF>");
+                    StringBuilder message = new StringBuilder();
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        message.append(line).append('\n');
+                    }
+                    messages.add(message.toString());
+                    reply(out, "250 OK");
+                } else if (command.startsWith("QUIT")) {
+                    reply(out, "221 bye");
+                    return;
+                } else {
+                    reply(out, "250 OK");
+                }
+            }
+        }
+
+        private static void reply(Writer out, String line) throws IOException {
+            out.write(line + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            dropSessions();
+        }
+    }
+}
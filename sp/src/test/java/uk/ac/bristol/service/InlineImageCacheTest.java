@@ -0,0 +1,182 @@
+package uk.ac.bristol.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import uk.ac.bristol.service.impl.EmailSender;
+import uk.ac.bristol.service.impl.InlineImageCache;
+import uk.ac.bristol.service.impl.SmtpTransportPool;
+
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Serves images from a local HTTP server and counts how often each one is downloaded.
+ */
+public class InlineImageCacheTest {
+
+    private HttpServer server;
+    private final Map<String, AtomicInteger> downloads = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            downloads.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            if (path.startsWith("/missing")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = new byte[path.startsWith("/large") ? 600 : 100];
+            Arrays.fill(body, (byte) path.length());
+            exchange.getResponseHeaders().add("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private int downloads(String path) {
+        AtomicInteger count = downloads.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    void testImageIsDownloadedOnce() {
+        InlineImageCache cache = new InlineImageCache(1 << 20, 60000, 60000);
+        InlineImageCache.InlineImage first = cache.get(url("/a.png")).orElseThrow();
+        InlineImageCache.InlineImage second = cache.get(url("/a.png")).orElseThrow();
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.contentId()).isEqualTo(new InlineImageCache(1 << 20, 60000, 60000).get(url("/a.png")).orElseThrow().contentId());
+        assertThat(first.fileName()).isEqualTo("a.png");
+        assertThat(first.bytes()).hasSize(100);
+        assertThat(cache.getStatistics()).containsEntry("hits", 1L).containsEntry("misses", 1L);
+    }
+
+    @Test
+    void testConcurrentMissesShareOneDownload() throws Exception {
+        InlineImageCache cache = new InlineImageCache(1 << 20, 60000, 60000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Optional<InlineImageCache.InlineImage>>> results = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            results.add(pool.submit(() -> cache.get(url("/shared.png"))));
+        }
+        for (Future<Optional<InlineImageCache.InlineImage>> result : results) {
+            assertThat(result.get()).isPresent();
+        }
+        pool.shutdown();
+        assertThat(downloads("/shared.png")).isEqualTo(1);
+    }
+
+    @Test
+    void testExpiredImageIsDownloadedAgain() throws InterruptedException {
+        InlineImageCache cache = new InlineImageCache(1 << 20, 50, 60000);
+        cache.get(url("/a.png"));
+        Thread.sleep(100);
+        cache.get(url("/a.png"));
+        assertThat(downloads("/a.png")).isEqualTo(2);
+    }
+
+    @Test
+    void testLeastRecentlyUsedImageIsEvicted() {
+        InlineImageCache cache = new InlineImageCache(250, 60000, 60000);
+        cache.get(url("/a.png"));
+        cache.get(url("/b.png"));
+        cache.get(url("/a.png"));
+        cache.get(url("/c.png"));
+        cache.get(url("/a.png"));
+        cache.get(url("/b.png"));
+
+        assertThat(downloads("/a.png")).isEqualTo(1);
+        assertThat(downloads("/b.png")).isEqualTo(2);
+        assertThat(cache.getStatistics()).containsEntry("evictions", 2L).containsEntry("bytes", 200L);
+    }
+
+    @Test
+    void testImageLargerThanCacheIsNotKept() {
+        InlineImageCache cache = new InlineImageCache(500, 60000, 60000);
+        assertThat(cache.get(url("/large.png"))).isPresent();
+        assertThat(cache.get(url("/large.png"))).isPresent();
+        assertThat(downloads("/large.png")).isEqualTo(2);
+        assertThat(cache.getStatistics()).containsEntry("bytes", 0L);
+    }
+
+    @Test
+    void testFailedDownloadIsNotTriedAgainUntilItsTtl() throws InterruptedException {
+        InlineImageCache cache = new InlineImageCache(1 << 20, 60000, 1000);
+        assertThat(cache.get(url("/missing.png"))).isEmpty();
+        assertThat(cache.get(url("/missing.png"))).isEmpty();
+        assertThat(downloads("/missing.png")).isEqualTo(1);
+        assertThat(cache.getStatistics()).containsEntry("failures", 1L).containsEntry("failureHits", 1L);
+
+        Thread.sleep(1100);
+        assertThat(cache.get(url("/missing.png"))).isEmpty();
+        assertThat(downloads("/missing.png")).isEqualTo(2);
+        // a URL that fails is still downloaded once it works again
+        assertThat(cache.get(url("/a.png"))).isPresent();
+    }
+
+    @Test
+    void testMessagesShareInlineParts() throws Exception {
+        JavaMailSenderImpl sessionSource = new JavaMailSenderImpl();
+        JavaMailSender mailSender = mock(JavaMailSender.class);
+        when(mailSender.createMimeMessage()).thenAnswer(invocation -> sessionSource.createMimeMessage());
+        List<MimeMessage> sent = new ArrayList<>();
+        doAnswer(invocation -> sent.add(invocation.getArgument(0))).when(mailSender).send(any(MimeMessage.class));
+        EmailSender emailSender = new EmailSender(mailSender, new InlineImageCache(1 << 20, 60000, 60000),
+                new SmtpTransportPool(mailSender, 1, 100, 30000), "sender@example.com", "http://localhost:8080", false);
+
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> notification = new HashMap<>();
+            notification.put("toUserId", "user_" + i);
+            notification.put("title", "Rain warning");
+            notification.put("body", "<h3>Dear user " + i + "</h3><img src=\"" + url("/logo.png?v=1&amp;s=2") + "\">"
+                    + "<img src='" + url("/logo.png?v=1&s=2") + "' alt=\"again\"><img src=\"" + url("/missing.png") + "\">");
+            emailSender.sendEmailToAddress("user" + i + "@example.com", notification);
+        }
+
+        assertThat(downloads("/logo.png")).isEqualTo(1);
+        assertThat(downloads("/missing.png")).isEqualTo(1);
+        assertThat(sent).hasSize(3);
+        MimeMultipart multipart = (MimeMultipart) sent.get(2).getContent();
+        assertThat(multipart.getCount()).isEqualTo(2);
+        String contentId = multipart.getBodyPart(1).getHeader("Content-ID")[0];
+        String html = (String) multipart.getBodyPart(0).getContent();
+        String cid = "cid:" + contentId.substring(1, contentId.length() - 1);
+        assertThat(html).contains("Dear user 2").contains("src=\"" + cid + "\"").contains("src='" + cid + "'")
+                .contains("src=\"" + url("/missing.png") + "\"").contains("unsubscribe?token=");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sent.get(2).writeTo(out);
+        assertThat(out.toString(StandardCharsets.UTF_8)).contains("Content-ID: " + contentId);
+    }
+}
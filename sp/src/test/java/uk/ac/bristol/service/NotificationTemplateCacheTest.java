@@ -0,0 +1,80 @@
+package uk.ac.bristol.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.bristol.dao.ContactMapper;
+import uk.ac.bristol.pojo.Template;
+import uk.ac.bristol.service.impl.NotificationTemplateCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class NotificationTemplateCacheTest {
+
+    private ContactMapper contactMapper;
+    private NotificationTemplateCache cache;
+
+    @BeforeEach
+    void setUp() {
+        contactMapper = mock(ContactMapper.class);
+        List<Template> templates = new ArrayList<>();
+        templates.add(template("type_001", "Rain", "YELLOW", "email", "rain email"));
+        templates.add(template("type_002", "Rain", "YELLOW", "email", "rain email 2"));
+        templates.add(template("type_001", "Rain", "YELLOW", "phone", "rain sms"));
+        templates.add(template("type_001", "Thunderstorm", "AMBER", "email", "storm email"));
+        when(contactMapper.selectNotificationTemplateByTypes(any())).thenReturn(templates);
+        cache = new NotificationTemplateCache(contactMapper);
+    }
+
+    private static Template template(String assetTypeId, String warningType, String severity, String channel, String title) {
+        Template template = new Template(assetTypeId, warningType, severity, channel);
+        template.setTitle(title);
+        template.setBody(title);
+        return template;
+    }
+
+    @Test
+    void testLookupMatchesLikeTheQuery() {
+        Map<String, NotificationTemplateCache.Entry> mapping = cache.getTemplatesByAssetType("rain", "yellow", "EMAIL");
+        assertThat(mapping).containsOnlyKeys("type_001", "type_002");
+        assertThat(mapping.get("type_001").template().getTitle()).isEqualTo("rain email");
+
+        // the weather type of a template only has to contain the requested one
+        assertThat(cache.getTemplatesByAssetType("storm", "AMBER", "email")).containsOnlyKeys("type_001");
+        assertThat(cache.getTemplatesByAssetType("Snow", "RED", "email")).isEmpty();
+    }
+
+    @Test
+    void testTemplatesAreLoadedOnce() {
+        for (int i = 0; i < 100; i++) {
+            cache.getTemplatesByAssetType("Rain", "YELLOW", "email");
+            cache.getTemplatesByAssetType("Rain", "YELLOW", "phone");
+        }
+        verify(contactMapper, times(1)).selectNotificationTemplateByTypes(any());
+        Map<String, Object> statistics = cache.getStatistics();
+        assertThat(statistics.get("loads")).isEqualTo(1L);
+        assertThat(statistics.get("misses")).isEqualTo(2L);
+        assertThat(statistics.get("hits")).isEqualTo(198L);
+        assertThat(statistics.get("templates")).isEqualTo(4);
+    }
+
+    @Test
+    void testInvalidateReloads() {
+        cache.getTemplatesByAssetType("Rain", "YELLOW", "email");
+        when(contactMapper.selectNotificationTemplateByTypes(any()))
+                .thenReturn(List.of(template("type_001", "Rain", "YELLOW", "email", "updated")));
+        assertThat(cache.getTemplatesByAssetType("Rain", "YELLOW", "email").get("type_001").template().getTitle()).isEqualTo("rain email");
+
+        cache.invalidate();
+        assertThat(cache.getStatistics().get("loaded")).isEqualTo(false);
+        Map<String, NotificationTemplateCache.Entry> mapping = cache.getTemplatesByAssetType("Rain", "YELLOW", "email");
+        assertThat(mapping).containsOnlyKeys("type_001");
+        assertThat(mapping.get("type_001").template().getTitle()).isEqualTo("updated");
+        verify(contactMapper, times(2)).selectNotificationTemplateByTypes(any());
+    }
+}
@@ -0,0 +1,75 @@
+package uk.ac.bristol.service;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.bristol.service.impl.TileCache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TileCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private byte[] load(int size) {
+        loads.incrementAndGet();
+        return new byte[size];
+    }
+
+    @Test
+    void testTilesAreLoadedOnce() {
+        TileCache cache = new TileCache(1024, 60000);
+
+        assertThat(cache.get("0/0/0/", () -> load(10))).hasSize(10);
+        assertThat(cache.get("0/0/0/", () -> load(10))).hasSize(10);
+        assertThat(cache.get("0/0/0/user_001", () -> load(20))).hasSize(20);
+
+        assertThat(loads).hasValue(2);
+        assertThat(cache.getStatistics()).containsEntry("tiles", 2).containsEntry("bytes", 30L).containsEntry("hits", 1L);
+    }
+
+    @Test
+    void testExpiredTilesAreLoadedAgain() {
+        TileCache cache = new TileCache(1024, 0);
+
+        cache.get("0/0/0/", () -> load(10));
+        cache.get("0/0/0/", () -> load(10));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void testLeastRecentlyUsedTilesAreEvicted() {
+        TileCache cache = new TileCache(100, 60000);
+        cache.get("1/0/0/", () -> load(40));
+        cache.get("1/0/1/", () -> load(40));
+        // touch the first tile so that the second is the least recently used
+        cache.get("1/0/0/", () -> load(40));
+        cache.get("1/1/0/", () -> load(40));
+
+        cache.get("1/0/0/", () -> load(40));
+        assertThat(loads).hasValue(3);
+        cache.get("1/0/1/", () -> load(40));
+        assertThat(loads).hasValue(4);
+        assertThat(cache.getStatistics()).containsEntry("evictions", 2L);
+        // larger than the whole cache, returned but not kept
+        assertThat(cache.get("0/0/0/", () -> load(200))).hasSize(200);
+        assertThat((long) cache.getStatistics().get("bytes")).isLessThanOrEqualTo(100L);
+    }
+
+    @Test
+    void testTileLoadedDuringInvalidationIsNotCached() {
+        TileCache cache = new TileCache(1024, 60000);
+        cache.get("0/0/0/", () -> load(10));
+        cache.invalidate();
+        cache.get("0/0/0/", () -> load(10));
+        assertThat(loads).hasValue(2);
+
+        cache.get("1/0/0/", () -> {
+            cache.invalidate();
+            return load(10);
+        });
+        cache.get("1/0/0/", () -> load(10));
+        assertThat(loads).hasValue(4);
+    }
+}
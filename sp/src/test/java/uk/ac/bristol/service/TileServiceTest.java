@@ -0,0 +1,333 @@
+package uk.ac.bristol.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.locationtech.jts.geom.Point;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+import uk.ac.bristol.MockDataInitializer;
+import uk.ac.bristol.dao.TileMapper;
+import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.pojo.Asset;
+import uk.ac.bristol.pojo.Warning;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tiles read back from PostGIS and decoded, for the admin route (no owner) and the per-user route (one owner).
+ */
+@SpringBootTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TileServiceTest {
+
+    private static final String OWNER = "user_017";
+    private static final int POINT = 1;
+    private static final int POLYGON = 3;
+
+    @Autowired
+    private MockDataInitializer mockDataInitializer;
+
+    @Autowired
+    private TileService tileService;
+
+    @Autowired
+    private TileMapper tileMapper;
+
+    @Autowired
+    private AssetService assetService;
+
+    @Autowired
+    private WarningService warningService;
+
+    @BeforeAll
+    public void init() throws IOException {
+        mockDataInitializer.forceReload();
+    }
+
+    @Test
+    void testClustersCountTheAssetsOfTheOwner() {
+        List<Asset> owned = assetService.getAssetsByOwnerId(OWNER, null, null, null);
+        assertThat(owned).isNotEmpty();
+
+        List<Feature> all = decode(tileService.getTile(0, 0, 0, null)).get("assets");
+        List<Feature> mine = decode(tileService.getTile(0, 0, 0, OWNER)).get("assets");
+
+        assertThat(all).allMatch(feature -> feature.type() == POINT && feature.tags().containsKey("count"));
+        assertThat(all.stream().mapToLong(feature -> (Long) feature.tags().get("count")).sum()).isEqualTo(53);
+        assertThat(mine.stream().mapToLong(feature -> (Long) feature.tags().get("count")).sum()).isEqualTo(owned.size());
+    }
+
+    @Test
+    void testOwnerTilesOnlyHoldTheAssetsOfTheOwner() {
+        List<Asset> assets = assetService.getAssets(null, null, null, null);
+        Set<String> owned = assetService.getAssetsByOwnerId(OWNER, null, null, null).stream()
+                .map(Asset::getId).collect(Collectors.toSet());
+        int checked = 0;
+        for (Asset asset : assets) {
+            int[] tile = tileOf(asset.getLocationCentroid(), 14);
+            Set<Object> allIds = ids(decode(tileService.getTile(14, tile[0], tile[1], null)).get("assets"));
+            List<Feature> mine = decode(tileService.getTile(14, tile[0], tile[1], OWNER)).get("assets");
+
+            assertThat(allIds).contains(asset.getId());
+            if (mine != null) {
+                assertThat(mine).allMatch(feature -> OWNER.equals(feature.tags().get("owner_id")));
+                assertThat(ids(mine)).isSubsetOf(owned).isSubsetOf(allIds);
+            }
+            assertThat(mine != null && ids(mine).contains(asset.getId())).isEqualTo(owned.contains(asset.getId()));
+            checked++;
+        }
+        assertThat(checked).isEqualTo(53);
+    }
+
+    @Test
+    void testAssetGeometryFollowsTheZoomBands() {
+        Asset asset = assetService.getAssetsByOwnerId(OWNER, null, null, null).get(0);
+        Map<Integer, Integer> expectedTypes = Map.of(9, POINT, 10, POINT, 13, POINT, 14, POLYGON, 16, POLYGON);
+        for (Map.Entry<Integer, Integer> band : expectedTypes.entrySet()) {
+            int z = band.getKey();
+            int[] tile = tileOf(asset.getLocationCentroid(), z);
+            List<Feature> features = decode(tileService.getTile(z, tile[0], tile[1], OWNER)).get("assets");
+            assertThat(features).as("zoom %d", z).isNotEmpty();
+            assertThat(features).as("zoom %d", z).allMatch(feature -> feature.type() == band.getValue());
+            if (z < 10) {
+                // clusters carry a count and no asset attributes
+                assertThat(features).allMatch(feature -> feature.tags().containsKey("count") && !feature.tags().containsKey("id"));
+            } else {
+                assertThat(ids(features)).contains(asset.getId());
+            }
+        }
+    }
+
+    @Test
+    @Transactional
+    void testWarningGeometryFollowsTheZoomBands() {
+        warningService.insertWarning(createZigzagWarning());
+        // the southern edge zigzags by 0.005 degrees, kept by the fine area only,
+        // the northern edge by 0.0005 degrees, kept by the exact area only
+        int[] south = tileOf(-2.5, 51.0, 7);
+        List<Feature> coarse = warnings(tileService.getTile(7, south[0], south[1], null));
+        assertThat(coarse).isNotEmpty();
+        assertThat(coarse).isEqualTo(warnings(tileMapper.selectTile(7, south[0], south[1], null, "cluster", 1, "coarse")));
+        assertThat(coarse).isNotEqualTo(warnings(tileMapper.selectTile(7, south[0], south[1], null, "cluster", 1, "fine")));
+
+        int[] north = tileOf(-2.5, 52.0, 11);
+        List<Feature> fine = warnings(tileService.getTile(11, north[0], north[1], null));
+        assertThat(fine).isEqualTo(warnings(tileMapper.selectTile(11, north[0], north[1], null, "centroid", 1, "fine")));
+        assertThat(fine).isNotEqualTo(warnings(tileMapper.selectTile(11, north[0], north[1], null, "centroid", 1, "exact")));
+
+        north = tileOf(-2.5, 52.0, 12);
+        List<Feature> exact = warnings(tileService.getTile(12, north[0], north[1], null));
+        assertThat(exact).isEqualTo(warnings(tileMapper.selectTile(12, north[0], north[1], null, "centroid", 1, "exact")));
+        assertThat(exact).allMatch(feature -> feature.type() == POLYGON);
+    }
+
+    @Test
+    void testTilesOutsideTheGridAreRejected() {
+        assertThatThrownBy(() -> tileService.getTile(1, 2, 0, null)).isInstanceOf(SpExceptions.BadRequestException.class);
+        assertThatThrownBy(() -> tileService.getTile(23, 0, 0, null)).isInstanceOf(SpExceptions.BadRequestException.class);
+    }
+
+    private Warning createZigzagWarning() {
+        StringBuilder ring = new StringBuilder("[-3,51]");
+        for (int i = 1; i < 50; i++) {
+            ring.append(",[").append(-3 + i * 0.02).append(',').append(51 + (i % 2) * 0.005).append(']');
+        }
+        ring.append(",[-2,51],[-2,52]");
+        for (int i = 1; i < 500; i++) {
+            ring.append(",[").append(-2 - i * 0.002).append(',').append(52 - (i % 2) * 0.0005).append(']');
+        }
+        ring.append(",[-3,52],[-3,51]");
+
+        Warning warning = new Warning();
+        warning.setId(990001L);
+        warning.setWeatherType("Rain");
+        warning.setWarningLevel("YELLOW");
+        warning.setWarningHeadLine("Test Warning");
+        warning.setValidFrom(Instant.now().minusSeconds(3600));
+        warning.setValidTo(Instant.now().plusSeconds(3600));
+        warning.setWarningImpact("Medium");
+        warning.setWarningLikelihood("High");
+        warning.setAffectedAreas("Test Areas");
+        warning.setWhatToExpect("Rain");
+        warning.setWarningFurtherDetails("More details");
+        warning.setWarningUpdateDescription("Initial");
+        warning.setAreaAsJson("{\"type\":\"MultiPolygon\",\"coordinates\":[[[" + ring + "]]]}");
+        return warning;
+    }
+
+    private static int[] tileOf(Point point, int z) {
+        return tileOf(point.getX(), point.getY(), z);
+    }
+
+    private static int[] tileOf(double longitude, double latitude, int z) {
+        double n = 1 << z;
+        double radians = Math.toRadians(latitude);
+        int x = (int) Math.floor((longitude + 180) / 360 * n);
+        int y = (int) Math.floor((1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2 * n);
+        return new int[]{x, y};
+    }
+
+    private static Set<Object> ids(List<Feature> features) {
+        return features == null ? Set.of() : features.stream().map(feature -> feature.tags().get("id")).collect(Collectors.toSet());
+    }
+
+    private static List<Feature> warnings(byte[] tile) {
+        return decode(tile).getOrDefault("warnings", List.of());
+    }
+
+    /* a minimal reader of the Mapbox vector tile protobuf encoding, layers by name with their features */
+
+    private record Feature(int type, Map<String, Object> tags, List<Integer> geometry) {
+    }
+
+    private static Map<String, List<Feature>> decode(byte[] tile) {
+        Map<String, List<Feature>> layers = new HashMap<>();
+        Reader reader = new Reader(tile, 0, tile.length);
+        while (reader.hasNext()) {
+            int key = (int) reader.varint();
+            if (key >>> 3 == 3 && (key & 7) == 2) {
+                Reader layer = reader.message();
+                String name = null;
+                List<String> keys = new ArrayList<>();
+                List<Object> values = new ArrayList<>();
+                List<Reader> features = new ArrayList<>();
+                while (layer.hasNext()) {
+                    int field = (int) layer.varint();
+                    switch (field >>> 3) {
+                        case 1 -> name = layer.string();
+                        case 2 -> features.add(layer.message());
+                        case 3 -> keys.add(layer.string());
+                        case 4 -> values.add(value(layer.message()));
+                        default -> layer.skip(field & 7);
+                    }
+                }
+                List<Feature> decoded = new ArrayList<>();
+                for (Reader feature : features) {
+                    decoded.add(feature(feature, keys, values));
+                }
+                layers.put(name, decoded);
+            } else {
+                reader.skip(key & 7);
+            }
+        }
+        return layers;
+    }
+
+    private static Feature feature(Reader reader, List<String> keys, List<Object> values) {
+        int type = 0;
+        Map<String, Object> tags = new HashMap<>();
+        List<Integer> geometry = new ArrayList<>();
+        while (reader.hasNext()) {
+            int field = (int) reader.varint();
+            switch (field >>> 3) {
+                case 2 -> {
+                    Reader packed = reader.message();
+                    while (packed.hasNext()) {
+                        tags.put(keys.get((int) packed.varint()), values.get((int) packed.varint()));
+                    }
+                }
+                case 3 -> type = (int) reader.varint();
+                case 4 -> {
+                    Reader packed = reader.message();
+                    while (packed.hasNext()) {
+                        geometry.add((int) packed.varint());
+                    }
+                }
+                default -> reader.skip(field & 7);
+            }
+        }
+        return new Feature(type, tags, geometry);
+    }
+
+    private static Object value(Reader reader) {
+        Object value = null;
+        while (reader.hasNext()) {
+            int field = (int) reader.varint();
+            switch (field >>> 3) {
+                case 1 -> value = reader.string();
+                case 2 -> value = (double) Float.intBitsToFloat((int) reader.fixed(4));
+                case 3 -> value = Double.longBitsToDouble(reader.fixed(8));
+                case 4, 5 -> value = reader.varint();
+                case 6 -> {
+                    long zigzag = reader.varint();
+                    value = (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+                case 7 -> value = reader.varint() != 0;
+                default -> reader.skip(field & 7);
+            }
+        }
+        return value;
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int position;
+        private final int end;
+
+        Reader(byte[] bytes, int position, int end) {
+            this.bytes = bytes;
+            this.position = position;
+            this.end = end;
+        }
+
+        boolean hasNext() {
+            return position < end;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        long fixed(int size) {
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value |= (long) (bytes[position++] & 0xff) << (8 * i);
+            }
+            return value;
+        }
+
+        Reader message() {
+            int length = (int) varint();
+            Reader message = new Reader(bytes, position, position + length);
+            position += length;
+            return message;
+        }
+
+        String string() {
+            int length = (int) varint();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skip(int wireType) {
+            switch (wireType) {
+                case 0 -> varint();
+                case 1 -> position += 8;
+                case 2 -> position += (int) varint();
+                case 5 -> position += 4;
+                default -> throw new IllegalStateException("Unknown wire type " + wireType);
+            }
+        }
+    }
+}
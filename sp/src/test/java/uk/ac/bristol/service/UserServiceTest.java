@@ -5,17 +5,21 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.annotation.Transactional;
 import uk.ac.bristol.MockDataInitializer;
 import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.pojo.Asset;
 import uk.ac.bristol.pojo.User;
 import uk.ac.bristol.pojo.UserWithAssets;
 import uk.ac.bristol.pojo.UserWithExtraColumns;
 import uk.ac.bristol.service.UserService;
+import uk.ac.bristol.util.GeometryTool;
 import uk.ac.bristol.util.QueryTool;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +37,12 @@ public class UserServiceTest {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // owns four of the mock assets
+    private static final String MULTI_ASSET_OWNER = "user_017";
+
     @BeforeAll
     public void init() throws IOException {
         mockDataInitializer.forceReload();
@@ -169,14 +179,48 @@ public class UserServiceTest {
 
     @Test
     void testGroupUsersWithOwnedAssetsByWarningId() {
-        List<UserWithAssets> grouped = userService.groupUsersWithOwnedAssetsByWarningId(10, null, 1L, false, null);
+        List<UserWithAssets> grouped = userService.groupUsersWithOwnedAssetsByWarningId(10, null, null, 1L, false, null, null, false);
         assertThat(grouped).isEmpty(); // No warnings
 
         // Test diff true with json
-        List<UserWithAssets> diff = userService.groupUsersWithOwnedAssetsByWarningId(5, null, 1L, true, "{\"type\":\"MultiPolygon\",\"coordinates\":[[[[-1,1],[-1,2],[0,2],[0,1],[-1,1]]]]}");
+        List<UserWithAssets> diff = userService.groupUsersWithOwnedAssetsByWarningId(5, null, null, 1L, true, GeometryTool.fromGeoJson("{\"type\":\"MultiPolygon\",\"coordinates\":[[[[-1,1],[-1,2],[0,2],[0,1],[-1,1]]]]}"), null, false);
         assertThat(diff).isNotNull();
     }
 
+    @Test
+    @Transactional
+    void testGroupUsersWithOwnedAssetsPagesByUser() {
+        // a warning over every asset of an owner with several of them
+        List<String> ownedAssetIds = jdbcTemplate.queryForList(
+                "select asset_id from assets where asset_owner_id = ? order by asset_id", String.class, MULTI_ASSET_OWNER);
+        assertThat(ownedAssetIds).hasSizeGreaterThan(1);
+        jdbcTemplate.update("insert into weather_warnings (warning_id, warning_weather_type, warning_level, warning_head_line, " +
+                "warning_valid_from, warning_valid_to, warning_area) " +
+                "select 990017, 'Rain', 'YELLOW', 'Test Warning', now() - interval '1 hour', now() + interval '1 hour', " +
+                "ST_Multi(ST_Buffer(ST_Union(asset_location), 0.0001)) from assets where asset_owner_id = ?", MULTI_ASSET_OWNER);
+
+        // the limit counts users, each with all of their matching assets
+        List<String> userIds = new ArrayList<>();
+        UserWithAssets owner = null;
+        long cursor = 0L;
+        List<UserWithAssets> page;
+        while (!(page = userService.groupUsersWithOwnedAssetsByWarningId(1, cursor, null, 990017L, false, null, null, false)).isEmpty()) {
+            assertThat(page).hasSize(1);
+            UserWithAssets uwa = page.get(0);
+            assertThat(uwa.getAssets()).isNotEmpty().allMatch(asset -> uwa.getUser().getId().equals(asset.getOwnerId()));
+            userIds.add(uwa.getUser().getId());
+            if (MULTI_ASSET_OWNER.equals(uwa.getUser().getId())) {
+                owner = uwa;
+            }
+            cursor = uwa.getUser().getRowId();
+        }
+
+        assertThat(owner).isNotNull();
+        assertThat(owner.getAssets()).extracting(Asset::getId).containsExactlyInAnyOrderElementsOf(ownedAssetIds);
+        // the next page starts after the owner instead of repeating them for their remaining assets
+        assertThat(userIds).doesNotHaveDuplicates();
+    }
+
     @Test
     void testGroupUserAddressPostcodeByCountry() {
         Map<String, Integer> byCountry = userService.groupUserAddressPostcodeByCountry(null);
@@ -0,0 +1,511 @@
+package uk.ac.bristol.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.locationtech.jts.geom.Geometry;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.ac.bristol.controller.Code;
+import uk.ac.bristol.dao.FanOutMapper;
+import uk.ac.bristol.dao.WarningMapper;
+import uk.ac.bristol.pojo.Asset;
+import uk.ac.bristol.pojo.User;
+import uk.ac.bristol.pojo.UserWithAssets;
+import uk.ac.bristol.pojo.Warning;
+import uk.ac.bristol.service.impl.WarningFanOutServiceImpl;
+import uk.ac.bristol.util.GeometryTool;
+import uk.ac.bristol.util.PipelineMetrics;
+import uk.ac.bristol.util.ReplayScope;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Fans out over a synthetic set of affected users served from memory, with the paging of
+ * groupUsersWithOwnedAssetsByWarningId and the ntile bounds of getUserRowIdPartitionBounds.
+ */
+public class WarningFanOutServiceTest {
+
+    private final NavigableMap<Long, UserWithAssets> affected = new ConcurrentSkipListMap<>();
+    private final Map<Long, AtomicInteger> notified = new ConcurrentHashMap<>();
+    private final Set<String> threads = ConcurrentHashMap.newKeySet();
+    // simulated cost of one page query and of notifying one user
+    private long pageNanos;
+    private int notifyWork;
+
+    private UserService userService;
+    private ContactService contactService;
+    private FanOutMapper fanOutMapper;
+    private WarningMapper warningMapper;
+    private WarningFanOutServiceImpl service;
+    // checkpointed ranges of fan-out 7, by index
+    private final Map<Integer, Map<String, Object>> checkpoints = new ConcurrentSkipListMap<>();
+    // rows of the fanouts table by fanout_row_id, see storeFanOuts
+    private final NavigableMap<Long, Map<String, Object>> fanOuts = new ConcurrentSkipListMap<>();
+    // the page size is a global, restored for the tests that run after this class
+    private int paginationMaxLimit;
+
+    @BeforeEach
+    void setUp() {
+        paginationMaxLimit = Code.PAGINATION_MAX_LIMIT;
+        Code.PAGINATION_MAX_LIMIT = 100;
+        userService = mock(UserService.class);
+        contactService = mock(ContactService.class);
+        fanOutMapper = mock(FanOutMapper.class);
+        warningMapper = mock(WarningMapper.class);
+        when(userService.groupUsersWithOwnedAssetsByWarningId(anyInt(), anyLong(), any(), anyLong(), anyBoolean(), any(), any(), anyBoolean()))
+                .thenAnswer(invocation -> page(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+        when(userService.getUserRowIdPartitionBounds(anyInt(), anyLong()))
+                .thenAnswer(invocation -> bounds(invocation.getArgument(0)));
+        when(contactService.filterUnsentNotifications(any(), anyList(), anyBoolean()))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+        doAnswer(invocation -> {
+            UserWithAssets uwa = invocation.getArgument(1);
+            notified.computeIfAbsent(uwa.getUser().getRowId(), id -> new AtomicInteger()).incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+            work(notifyWork);
+            return null;
+        }).when(contactService).sendNotificationsToUser(any(), any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.stop();
+        }
+        Code.PAGINATION_MAX_LIMIT = paginationMaxLimit;
+    }
+
+    private WarningFanOutServiceImpl service(int parallelism, int partitions) {
+        service = new WarningFanOutServiceImpl(userService, contactService, fanOutMapper, warningMapper);
+        ReflectionTestUtils.setField(service, "workers", 2);
+        ReflectionTestUtils.setField(service, "capacity", 16);
+        ReflectionTestUtils.setField(service, "parallelism", parallelism);
+        ReflectionTestUtils.setField(service, "partitions", partitions);
+        service.start();
+        return service;
+    }
+
+    // fan-outs are recorded as number 7, with their ranges kept in memory
+    private void recordFanOuts() {
+        when(fanOutMapper.insertFanOut(anyLong(), any(), any())).thenReturn(7L);
+        when(fanOutMapper.increaseFanOutAttempts(7L)).thenReturn(1);
+        when(fanOutMapper.selectFanOutRanges(7L)).thenAnswer(invocation -> new ArrayList<>(checkpoints.values()));
+        when(fanOutMapper.insertFanOutRanges(eq(7L), anyList())).thenAnswer(invocation -> {
+            List<Map<String, Object>> ranges = invocation.getArgument(1);
+            ranges.forEach(range -> checkpoint((Integer) range.get("index"), (Long) range.get("start"), (Long) range.get("end"), (Long) range.get("cursor"), 0, false));
+            return ranges.size();
+        });
+        when(fanOutMapper.updateFanOutRange(eq(7L), anyInt(), anyLong(), anyInt(), anyBoolean())).thenAnswer(invocation -> {
+            Map<String, Object> range = checkpoints.get((Integer) invocation.getArgument(1));
+            range.put("cursor", invocation.getArgument(2));
+            range.put("users", invocation.getArgument(3));
+            range.put("done", invocation.getArgument(4));
+            return 1;
+        });
+    }
+
+    private void checkpoint(int index, long start, Long end, long cursor, int users, boolean done) {
+        Map<String, Object> range = new HashMap<>();
+        range.put("index", index);
+        range.put("start", start);
+        range.put("end", end);
+        range.put("cursor", cursor);
+        range.put("users", users);
+        range.put("done", done);
+        checkpoints.put(index, range);
+    }
+
+    private void addUsers(int count, long firstRowId, long step) {
+        for (int i = 0; i < count; i++) {
+            long rowId = firstRowId + i * step;
+            User user = new User();
+            user.setRowId(rowId);
+            user.setId("user_" + rowId);
+            Asset asset = new Asset();
+            asset.setId("asset_" + rowId);
+            affected.put(rowId, new UserWithAssets(user, List.of(asset)));
+        }
+    }
+
+    private List<UserWithAssets> page(int limit, long cursor, Long cursorEnd) {
+        LockSupport.parkNanos(pageNanos);
+        NavigableMap<Long, UserWithAssets> range = cursorEnd == null
+                ? affected.tailMap(cursor, false)
+                : affected.subMap(cursor, false, cursorEnd, true);
+        List<UserWithAssets> list = new ArrayList<>(limit);
+        for (UserWithAssets uwa : range.values()) {
+            if (list.size() == limit) break;
+            list.add(uwa);
+        }
+        return list;
+    }
+
+    private List<Long> bounds(int partitions) {
+        List<Long> ids = new ArrayList<>(affected.keySet());
+        List<Long> bounds = new ArrayList<>();
+        for (int i = 1; i <= Math.min(partitions, ids.size()); i++) {
+            bounds.add(ids.get((int) Math.ceil((double) ids.size() * i / Math.min(partitions, ids.size())) - 1));
+        }
+        return bounds;
+    }
+
+    private static Warning warning() {
+        Warning warning = new Warning();
+        warning.setId(1L);
+        return warning;
+    }
+
+    private static long sink;
+
+    private static void work(int iterations) {
+        long x = 0;
+        for (int i = 0; i < iterations; i++) {
+            x += Long.hashCode(x * 31 + i);
+        }
+        sink += x;
+    }
+
+    private void fanOut(WarningFanOutServiceImpl service) throws InterruptedException {
+        service.publish(warning(), null);
+        assertThat(service.awaitIdle(Duration.ofMinutes(2))).isTrue();
+    }
+
+    @Test
+    void testEveryUserIsNotifiedOnceAcrossRanges() throws InterruptedException {
+        addUsers(5000, 3, 7);
+        WarningFanOutServiceImpl service = service(4, 8);
+
+        fanOut(service);
+
+        assertThat(notified).hasSize(5000);
+        assertThat(notified.values()).allMatch(count -> count.get() == 1);
+        assertThat(threads).hasSizeGreaterThan(1).allMatch(name -> name.startsWith("WarningFanOutPartition-"));
+        assertThat(service.getStatistics()).containsEntry("completed", 1L).containsEntry("ranges", 8L);
+    }
+
+    @Test
+    void testOwnersAfterTheLastBoundAreIncluded() throws InterruptedException {
+        addUsers(100, 1, 1);
+        when(userService.getUserRowIdPartitionBounds(anyInt(), anyLong())).thenAnswer(invocation -> {
+            List<Long> bounds = bounds(invocation.getArgument(0));
+            addUsers(10, 1000, 1);
+            return bounds;
+        });
+
+        fanOut(service(2, 4));
+
+        assertThat(notified).hasSize(110).containsKey(1009L);
+    }
+
+    @Test
+    void testSinglePartitionPagesSerially() throws InterruptedException {
+        addUsers(250, 1, 1);
+
+        fanOut(service(1, 1));
+
+        assertThat(notified).hasSize(250);
+        verify(userService, never()).getUserRowIdPartitionBounds(anyInt(), anyLong());
+        verify(userService, times(4)).groupUsersWithOwnedAssetsByWarningId(eq(100), anyLong(), isNull(), eq(1L), eq(false), any(), any(), eq(false));
+    }
+
+    @Test
+    void testFailingRangeDoesNotStopTheOthers() throws InterruptedException {
+        addUsers(400, 1, 1);
+        doThrow(new RuntimeException("database went away"))
+                .when(contactService).sendNotificationsToUser(any(), argThat(uwa -> uwa.getUser().getRowId() == 150L));
+        WarningFanOutServiceImpl service = service(2, 4);
+
+        fanOut(service);
+
+        // the range (100, 200] stops at the failing user, the other three complete
+        assertThat(notified).hasSize(349);
+        assertThat(service.getStatistics()).containsEntry("failed", 1L).containsEntry("completed", 0L);
+    }
+
+    @Test
+    void testUsersInTheLedgerAreSkipped() throws InterruptedException {
+        addUsers(400, 1, 1);
+        // as if a previous fan-out of the same revision had reached the first 150 users before it crashed
+        when(contactService.filterUnsentNotifications(any(), anyList(), anyBoolean())).thenAnswer(invocation -> {
+            List<UserWithAssets> page = invocation.getArgument(1);
+            return page.stream().filter(uwa -> uwa.getUser().getRowId() > 150L).toList();
+        });
+        WarningFanOutServiceImpl service = service(2, 4);
+
+        fanOut(service);
+
+        assertThat(notified).hasSize(250).doesNotContainKey(150L).containsKey(151L);
+        assertThat(service.getStatistics()).containsEntry("skippedAsAlreadyNotified", 150L).containsEntry("completed", 1L);
+    }
+
+    @Test
+    void testReplayFansOutOnItsOwnThreadOutsideTheLiveStatistics() throws InterruptedException {
+        addUsers(400, 1, 1);
+        WarningFanOutServiceImpl service = service(2, 4);
+
+        try (ReplayScope scope = new ReplayScope().open()) {
+            // done by the time publish returns, without waiting for the workers
+            service.publish(warning(), null);
+            assertThat(notified).hasSize(400);
+            assertThat(threads).containsExactly(Thread.currentThread().getName());
+            assertThat(scope.getMetrics()).containsKey(PipelineMetrics.FANOUT);
+        }
+        assertThat(service.awaitIdle(Duration.ZERO)).isTrue();
+        assertThat(service.getStatistics()).containsEntry("published", 0L).containsEntry("ranges", 0L);
+    }
+
+    @Test
+    void testInboxMessagesAreInsertedPerRange() throws InterruptedException {
+        addUsers(400, 1, 1);
+        when(contactService.canInsertInboxMessagesInDatabase(any())).thenReturn(true);
+        when(contactService.insertInboxMessagesForWarning(any(), any(), anyLong(), any())).thenReturn(100);
+        WarningFanOutServiceImpl service = service(2, 4);
+        ReflectionTestUtils.setField(service, "databaseInbox", true);
+
+        fanOut(service);
+
+        verify(contactService).insertInboxMessagesForWarning(any(), isNull(), eq(0L), eq(100L));
+        verify(contactService).insertInboxMessagesForWarning(any(), isNull(), eq(300L), isNull());
+        verify(contactService, times(4)).insertInboxMessagesForWarning(any(), any(), anyLong(), any());
+        // the mock ignores externalOnly, every user it pages gets external channels only
+        verify(userService, atLeastOnce()).groupUsersWithOwnedAssetsByWarningId(anyInt(), anyLong(), any(), anyLong(), anyBoolean(), any(), any(), eq(true));
+        verify(contactService, times(400)).sendExternalNotificationsToUser(any(), any());
+        verify(contactService, never()).sendNotificationsToUser(any(), any());
+    }
+
+    @Test
+    void testEveryPageIsCheckpointed() throws InterruptedException {
+        addUsers(250, 1, 1);
+        recordFanOuts();
+
+        fanOut(service(1, 1));
+
+        InOrder inOrder = inOrder(fanOutMapper);
+        inOrder.verify(fanOutMapper).updateFanOutRange(7L, 0, 100L, 100, false);
+        inOrder.verify(fanOutMapper).updateFanOutRange(7L, 0, 200L, 200, false);
+        inOrder.verify(fanOutMapper).updateFanOutRange(7L, 0, 250L, 250, false);
+        inOrder.verify(fanOutMapper).updateFanOutRange(7L, 0, 250L, 250, true);
+        inOrder.verify(fanOutMapper).deleteFinishedFanOuts(1L, 7L);
+        assertThat(service.getStatistics()).containsEntry("checkpoints", 4L);
+    }
+
+    @Test
+    void testUnfinishedFanOutResumesFromItsCheckpoints() throws InterruptedException {
+        addUsers(400, 1, 1);
+        recordFanOuts();
+        // the first range was done, the second had got to user 150 and the last one had not started
+        checkpoint(0, 0L, 100L, 100L, 100, true);
+        checkpoint(1, 100L, 200L, 150L, 50, false);
+        checkpoint(2, 200L, null, 200L, 0, false);
+        Map<String, Object> unfinished = new HashMap<>();
+        unfinished.put("rowId", 7L);
+        unfinished.put("warningId", 1L);
+        unfinished.put("revision", "revision-1");
+        unfinished.put("previousArea", null);
+        when(fanOutMapper.selectUnfinishedFanOuts(anyInt())).thenReturn(List.of(unfinished));
+        when(warningMapper.selectWarningById(1L)).thenReturn(List.of(warning()));
+        WarningFanOutServiceImpl service = service(2, 4);
+
+        service.resume();
+        assertThat(service.awaitIdle(Duration.ofMinutes(1))).isTrue();
+
+        assertThat(notified).hasSize(250).doesNotContainKey(150L).containsKey(151L).containsKey(400L);
+        verify(userService, never()).getUserRowIdPartitionBounds(anyInt(), anyLong());
+        verify(contactService, atLeastOnce()).filterUnsentNotifications(argThat(warning -> "revision-1".equals(warning.getContentHash())), anyList(), anyBoolean());
+        verify(fanOutMapper).deleteSupersededFanOuts();
+        verify(fanOutMapper).deleteFinishedFanOuts(1L, 7L);
+        assertThat(checkpoints.get(1)).containsEntry("users", 100).containsEntry("done", true);
+        assertThat(service.getStatistics()).containsEntry("resumed", 1L).containsEntry("ranges", 2L);
+    }
+
+    @Test
+    void testSupersededAreaChangeStillReachesItsUsers() throws InterruptedException {
+        // owners at x = 0.5, 1.5 and 2.5, the warning moves from A = [0, 1] to B = [0, 2] and then to C = [1, 3]
+        Geometry a = box(0, 1);
+        Geometry b = box(0, 2);
+        Geometry c = box(1, 3);
+        locateUsers(0.5, 1.5, 2.5);
+        // the fan-out of A to B was stopped before it reached the owner at 1.5, and is still recorded
+        Map<String, Object> unfinished = new HashMap<>();
+        unfinished.put("rowId", 6L);
+        unfinished.put("warningId", 1L);
+        unfinished.put("revision", "revision-b");
+        unfinished.put("previousArea", a);
+        when(fanOutMapper.selectOldestUnfinishedFanOut(1L)).thenReturn(List.of(unfinished));
+        WarningFanOutServiceImpl service = service(1, 1);
+
+        Warning warning = warning();
+        warning.setContentHash("revision-c");
+        warning.setAreaGeometry(c);
+        service.publish(warning, b);
+        assertThat(service.awaitIdle(Duration.ofMinutes(1))).isTrue();
+
+        // in C and outside A, including the owner in B and C that the stopped fan-out never notified
+        assertThat(notified).containsOnlyKeys(2L, 3L);
+        verify(fanOutMapper).insertFanOut(1L, "revision-c", a);
+    }
+
+    @Test
+    void testFailedFanOutIsRetriedAndClearedByTheNextRevision() throws InterruptedException {
+        locateUsers(0.5, 1.5, 2.5, 3.5);
+        storeFanOuts();
+        AtomicBoolean failing = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            if (failing.get()) {
+                throw new RuntimeException("database went away");
+            }
+            UserWithAssets uwa = invocation.getArgument(1);
+            notified.computeIfAbsent(uwa.getUser().getRowId(), id -> new AtomicInteger()).incrementAndGet();
+            return null;
+        }).when(contactService).sendNotificationsToUser(any(), any());
+        WarningFanOutServiceImpl service = service(1, 1);
+        ReflectionTestUtils.setField(service, "maxAttempts", 2);
+
+        // A = [0, 1] to B = [0, 2] fails on both of its attempts and stays recorded
+        publish(service, "revision-b", box(0, 2), box(0, 1));
+        assertThat(service.getStatistics()).containsEntry("failed", 2L).containsEntry("retried", 1L);
+        verify(fanOutMapper, times(2)).increaseFanOutAttempts(1L);
+        assertThat(fanOuts).containsOnlyKeys(1L);
+
+        // B to C diffs against A, and its completion clears the failed fan-out it covered
+        failing.set(false);
+        publish(service, "revision-c", box(1, 3), box(0, 2));
+        assertThat(notified).containsOnlyKeys(2L, 3L);
+        assertThat(fanOuts).isEmpty();
+
+        // C to D diffs against C again, nobody is notified a second time
+        notified.clear();
+        publish(service, "revision-d", box(1, 4), box(1, 3));
+        assertThat(notified).containsOnlyKeys(4L);
+        verify(fanOutMapper).insertFanOut(1L, "revision-d", box(1, 3));
+        assertThat(service.getStatistics()).containsEntry("completed", 2L);
+    }
+
+    @Test
+    void testAreaChangeOfTheSameRevisionKeepsItsPreviousArea() throws InterruptedException {
+        Map<String, Object> unfinished = new HashMap<>();
+        unfinished.put("rowId", 6L);
+        unfinished.put("revision", "revision-c");
+        unfinished.put("previousArea", box(0, 1));
+        when(fanOutMapper.selectOldestUnfinishedFanOut(1L)).thenReturn(List.of(unfinished));
+        WarningFanOutServiceImpl service = service(1, 1);
+
+        Warning warning = warning();
+        warning.setContentHash("revision-c");
+        warning.setAreaGeometry(box(1, 3));
+        service.publish(warning, box(0, 2));
+        assertThat(service.awaitIdle(Duration.ofMinutes(1))).isTrue();
+
+        verify(fanOutMapper).insertFanOut(1L, "revision-c", box(0, 2));
+    }
+
+    private void publish(WarningFanOutServiceImpl service, String revision, Geometry area, Geometry previousArea) throws InterruptedException {
+        Warning warning = warning();
+        warning.setContentHash(revision);
+        warning.setAreaGeometry(area);
+        service.publish(warning, previousArea);
+        assertThat(service.awaitIdle(Duration.ofMinutes(1))).isTrue();
+    }
+
+    // one owner per x, at (x, 0.5), paged by whether the warning area covers them and the previous area did not
+    private void locateUsers(double... xs) {
+        addUsers(xs.length, 1, 1);
+        Map<Long, Geometry> locations = new HashMap<>();
+        for (int i = 0; i < xs.length; i++) {
+            locations.put(i + 1L, GeometryTool.fromGeoJson("{\"type\":\"Point\",\"coordinates\":[" + xs[i] + ",0.5]}"));
+        }
+        when(userService.groupUsersWithOwnedAssetsByWarningId(anyInt(), anyLong(), any(), anyLong(), anyBoolean(), any(), any(), anyBoolean()))
+                .thenAnswer(invocation -> {
+                    boolean getDiff = invocation.getArgument(4);
+                    Geometry area = invocation.getArgument(5);
+                    Geometry previous = invocation.getArgument(6);
+                    return page(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)).stream()
+                            .filter(uwa -> {
+                                Geometry location = locations.get(uwa.getUser().getRowId());
+                                return area.intersects(location) && !(getDiff && previous.intersects(location));
+                            })
+                            .toList();
+                });
+    }
+
+    // the fanouts table in memory, without checkpointed ranges
+    private void storeFanOuts() {
+        AtomicLong rowIds = new AtomicLong();
+        when(fanOutMapper.insertFanOut(anyLong(), any(), any())).thenAnswer(invocation -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("rowId", rowIds.incrementAndGet());
+            row.put("warningId", invocation.getArgument(0));
+            row.put("revision", invocation.getArgument(1));
+            row.put("previousArea", invocation.getArgument(2));
+            row.put("attempts", 0);
+            fanOuts.put((Long) row.get("rowId"), row);
+            return row.get("rowId");
+        });
+        when(fanOutMapper.selectOldestUnfinishedFanOut(anyLong())).thenAnswer(invocation -> fanOuts.values().stream()
+                .filter(row -> row.get("warningId").equals(invocation.getArgument(0)))
+                .limit(1)
+                .toList());
+        when(fanOutMapper.increaseFanOutAttempts(anyLong())).thenAnswer(invocation -> {
+            Map<String, Object> row = fanOuts.get((Long) invocation.getArgument(0));
+            if (row == null) {
+                return 0;
+            }
+            row.put("attempts", (Integer) row.get("attempts") + 1);
+            return 1;
+        });
+        when(fanOutMapper.selectRetryableFanOut(anyLong(), anyInt())).thenAnswer(invocation -> {
+            Map<String, Object> row = fanOuts.get((Long) invocation.getArgument(0));
+            return row == null || (Integer) row.get("attempts") >= (Integer) invocation.getArgument(1) ? List.of() : List.of(row);
+        });
+        when(fanOutMapper.deleteFinishedFanOuts(anyLong(), anyLong())).thenAnswer(invocation -> {
+            Long warningId = invocation.getArgument(0);
+            Long rowId = invocation.getArgument(1);
+            int n = fanOuts.size();
+            fanOuts.values().removeIf(row -> row.get("warningId").equals(warningId) && (Long) row.get("rowId") <= rowId);
+            return n - fanOuts.size();
+        });
+    }
+
+    private static Geometry box(double minX, double maxX) {
+        return GeometryTool.fromGeoJson("{\"type\":\"MultiPolygon\",\"coordinates\":[[[[" + minX + ",0],[" + maxX + ",0],["
+                + maxX + ",1],[" + minX + ",1],[" + minX + ",0]]]]}");
+    }
+
+    /**
+     * Fan-out of one warning over 200,000 affected users, each notification costing some CPU and each page
+     * query 2 ms of waiting as if on the database, serially and with increasing parallelism.
+     * Run with {@code mvn test -Dtest=WarningFanOutServiceTest -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkFanOut() throws InterruptedException {
+        addUsers(200_000, 1, 3);
+        pageNanos = 2_000_000;
+        notifyWork = 2_000;
+        fanOut(service(4, 16));
+        service.stop();
+        for (int[] setting : new int[][]{{1, 1}, {2, 16}, {4, 16}, {8, 32}}) {
+            WarningFanOutServiceImpl service = service(setting[0], setting[1]);
+            long start = System.nanoTime();
+            fanOut(service);
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            service.stop();
+            System.out.printf("parallelism %d, %d ranges: %d users in %d ms, %d users/s%n",
+                    setting[0], setting[1], affected.size(), elapsed, affected.size() * 1000L / Math.max(1, elapsed));
+        }
+        assertThat(sink).isNotZero();
+    }
+}
@@ -0,0 +1,224 @@
+package uk.ac.bristol.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.locationtech.jts.densify.Densifier;
+import org.locationtech.jts.geom.Geometry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import uk.ac.bristol.MockDataInitializer;
+import uk.ac.bristol.controller.NotificationController;
+import uk.ac.bristol.controller.ResponseBody;
+import uk.ac.bristol.pojo.Warning;
+import uk.ac.bristol.util.GeometryTool;
+import uk.ac.bristol.util.WarningFeedParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * The simplified warning areas and the subdivided pieces filled by the triggers of createWeatherWarnings, and the
+ * map endpoint reading them. The bundled feed has few vertices per warning, so its areas are densified to one
+ * vertex per 0.001 degrees before they are stored, which is closer to the live feed.
+ */
+@SpringBootTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class WarningGeometryResolutionTest {
+
+    private static final long FIRST_ID = 900000L;
+
+    @Autowired
+    private MockDataInitializer mockDataInitializer;
+
+    @Autowired
+    private WarningService warningService;
+
+    @Autowired
+    private NotificationController notificationController;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    public void init() throws IOException {
+        mockDataInitializer.forceReload();
+    }
+
+    private List<Long> insertLiveSampleWarnings() throws IOException {
+        List<Warning> warnings;
+        try (InputStream in = new ClassPathResource("data/geojson-sample.json").getInputStream()) {
+            warnings = WarningFeedParser.parse(in);
+        }
+        assertThat(warnings).isNotEmpty();
+        List<Long> ids = new ArrayList<>();
+        long id = FIRST_ID;
+        for (Warning warning : warnings) {
+            warning.setId(id);
+            warning.setValidFrom(Instant.now().minusSeconds(3600));
+            warning.setValidTo(Instant.now().plusSeconds(3600));
+            warning.setAreaGeometry(Densifier.densify(warning.getAreaGeometry(), 0.001));
+            assertThat(warningService.insertWarning(warning)).isEqualTo(1);
+            ids.add(id++);
+        }
+        return ids;
+    }
+
+    private Map<Long, Geometry> areasById(List<Warning> warnings) {
+        return warnings.stream()
+                .filter(warning -> warning.getId() >= FIRST_ID)
+                .collect(Collectors.toMap(Warning::getId, Warning::getAreaGeometry));
+    }
+
+    @Test
+    @Transactional
+    void testSimplifiedAreasAreFilledOnInsert() throws IOException {
+        List<Long> ids = insertLiveSampleWarnings();
+
+        Map<Long, Geometry> full = areasById(warningService.getLiveWarningsAtResolution("full"));
+        Map<Long, Geometry> fine = areasById(warningService.getLiveWarningsAtResolution("fine"));
+        Map<Long, Geometry> coarse = areasById(warningService.getLiveWarningsAtResolution("coarse"));
+        assertThat(full.keySet()).containsExactlyInAnyOrderElementsOf(ids);
+        assertThat(fine.keySet()).containsExactlyInAnyOrderElementsOf(ids);
+        assertThat(coarse.keySet()).containsExactlyInAnyOrderElementsOf(ids);
+
+        for (Long id : ids) {
+            assertThat(fine.get(id).isValid()).isTrue();
+            assertThat(coarse.get(id).isValid()).isTrue();
+            assertThat(fine.get(id).getNumPoints()).isLessThan(full.get(id).getNumPoints());
+            assertThat(coarse.get(id).getNumPoints()).isLessThanOrEqualTo(fine.get(id).getNumPoints());
+            // a simplified area never drifts further than its tolerance
+            assertThat(full.get(id).getBoundary().buffer(0.001 + 1e-9).covers(fine.get(id).getBoundary())).isTrue();
+            assertThat(full.get(id).getBoundary().buffer(0.01 + 1e-9).covers(coarse.get(id).getBoundary())).isTrue();
+        }
+    }
+
+    @Test
+    @Transactional
+    void testSimplifiedAreasFollowAreaUpdates() throws IOException {
+        long id = insertLiveSampleWarnings().get(0);
+        Warning warning = warningService.getWarningById(id);
+        warning.setAreaAsJson("{\"type\":\"MultiPolygon\",\"coordinates\":[[[[-1,51],[-1,52],[0,52],[0,51],[-1,51]]]]}");
+        warningService.updateWarning(warning);
+
+        Geometry coarse = areasById(warningService.getLiveWarningsAtResolution("coarse")).get(id);
+        assertThat(coarse.equalsTopo(warning.getAreaGeometry())).isTrue();
+        assertThat(jdbcTemplate.queryForObject(
+                "select count(*) from weather_warning_pieces where warning_piece_warning_id = ?", Long.class, id))
+                .isEqualTo(1L);
+    }
+
+    @Test
+    @Transactional
+    void testPiecesCoverTheAreaAndGiveTheSameHits() throws IOException {
+        List<Long> ids = insertLiveSampleWarnings();
+
+        for (Long id : ids) {
+            Map<String, Object> pieces = jdbcTemplate.queryForMap(
+                    "select count(*)                                         as count, " +
+                    "       max(ST_NPoints(warning_piece_area))              as max_points, " +
+                    "       sum(ST_Area(warning_piece_area))                 as piece_area, " +
+                    "       ST_Area(warning_area)                            as area " +
+                    "from weather_warning_pieces " +
+                    "         join weather_warnings on warning_id = warning_piece_warning_id " +
+                    "where warning_id = ? " +
+                    "group by warning_area", id);
+            assertThat((Long) pieces.get("count")).isGreaterThan(1L);
+            // ST_Subdivide keeps at most 64 vertices per piece, plus those added where a piece is cut
+            assertThat((Integer) pieces.get("max_points")).isLessThanOrEqualTo(128);
+            assertThat((Double) pieces.get("piece_area")).isCloseTo((Double) pieces.get("area"), within(1e-9));
+
+            List<String> whole = jdbcTemplate.queryForList(
+                    "select asset_id from assets, weather_warnings " +
+                    "where warning_id = ? and ST_Intersects(warning_area, asset_location) order by asset_id",
+                    String.class, id);
+            List<String> hits = jdbcTemplate.queryForList(
+                    "select asset_warning_hit_asset_id from asset_warning_hits " +
+                    "where asset_warning_hit_warning_id = ? order by asset_warning_hit_asset_id",
+                    String.class, id);
+            assertThat(hits).isEqualTo(whole);
+        }
+    }
+
+    @Test
+    @Transactional
+    void testMapEndpointServesTheRequestedResolution() throws IOException {
+        List<Long> ids = insertLiveSampleWarnings();
+
+        ResponseBody defaults = notificationController.getLiveWarningsForMap("coarse");
+        Map<Long, Geometry> coarse = areasById((List<Warning>) defaults.getData());
+        Map<Long, Geometry> full = areasById((List<Warning>) notificationController.getLiveWarningsForMap("full").getData());
+        assertThat(coarse.keySet()).containsExactlyInAnyOrderElementsOf(ids);
+        for (Long id : ids) {
+            assertThat(coarse.get(id).getNumPoints()).isLessThan(full.get(id).getNumPoints());
+        }
+
+        assertThatThrownBy(() -> notificationController.getLiveWarningsForMap("medium"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Join time of every mock asset against the sample warnings, whole areas against subdivided pieces, and the time
+     * and GeoJSON size of the map response per resolution, all in PostGIS.
+     * Run with {@code mvn test -Dtest=WarningGeometryResolutionTest#benchmarkResolutions -Dbenchmark=true}.
+     */
+    @Test
+    @Transactional
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkResolutions() throws IOException {
+        insertLiveSampleWarnings();
+        String whole = "select count(*) from assets join weather_warnings " +
+                "on warning_id >= ? and ST_Intersects(warning_area, asset_location)";
+        String pieces = "select count(distinct (asset_id, warning_piece_warning_id)) from assets join weather_warning_pieces " +
+                "on warning_piece_warning_id >= ? and ST_Intersects(warning_piece_area, asset_location)";
+
+        int iterations = 50;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long wholeHits = 0;
+            for (int i = 0; i < iterations; i++) {
+                wholeHits = jdbcTemplate.queryForObject(whole, Long.class, FIRST_ID);
+            }
+            long wholeNanos = (System.nanoTime() - start) / iterations;
+
+            start = System.nanoTime();
+            long pieceHits = 0;
+            for (int i = 0; i < iterations; i++) {
+                pieceHits = jdbcTemplate.queryForObject(pieces, Long.class, FIRST_ID);
+            }
+            long pieceNanos = (System.nanoTime() - start) / iterations;
+
+            assertThat(pieceHits).isEqualTo(wholeHits);
+            System.out.printf("join: %d hits, whole areas %d us, subdivided pieces %d us%n",
+                    wholeHits, wholeNanos / 1000, pieceNanos / 1000);
+
+            for (String resolution : List.of("full", "fine", "coarse")) {
+                start = System.nanoTime();
+                List<Warning> warnings = null;
+                for (int i = 0; i < iterations; i++) {
+                    warnings = warningService.getLiveWarningsAtResolution(resolution);
+                }
+                long nanos = (System.nanoTime() - start) / iterations;
+                long bytes = 0;
+                for (Warning warning : warnings) {
+                    bytes += GeometryTool.toGeoJson(warning.getAreaGeometry()).getBytes(StandardCharsets.UTF_8).length;
+                }
+                System.out.printf("  %s: %d us, %d B%n", resolution, nanos / 1000, bytes);
+            }
+        }
+    }
+}
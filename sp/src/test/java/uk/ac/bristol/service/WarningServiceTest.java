@@ -3,15 +3,21 @@ package uk.ac.bristol.service;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.locationtech.jts.geom.Geometry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.annotation.Transactional;
 import uk.ac.bristol.MockDataInitializer;
 import uk.ac.bristol.dao.WarningMapper;
 import uk.ac.bristol.exception.SpExceptions;
+import uk.ac.bristol.pojo.Asset;
 import uk.ac.bristol.pojo.Warning;
 import uk.ac.bristol.service.WarningService;
+import uk.ac.bristol.util.GeometryTool;
 import uk.ac.bristol.util.QueryTool;
+import uk.ac.bristol.util.ReplayScope;
 
 import java.io.IOException;
 import java.time.Instant;
@@ -35,6 +41,15 @@ public class WarningServiceTest {
     @Autowired
     private WarningMapper warningMapper;
 
+    @Autowired
+    private AssetService assetService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private static final String WHOLE_REGIONS = "select uk_region_row_id from uk_regions " +
+            "where ST_Intersects(uk_region_area, ST_GeomFromText(?, 4326)) order by uk_region_row_id";
+
     @BeforeAll
     public void init() throws IOException {
         mockDataInitializer.forceReload();
@@ -140,6 +155,36 @@ public class WarningServiceTest {
         assertThat(noChange).isFalse();
     }
 
+    @Test
+    void testReplayStoresIntoTheReplaySchema() {
+        warningService.resetReplaySchema();
+        Warning warning = createTestWarning(1L);
+        warning.setContentHash("revision-a");
+        Warning update = createTestWarning(1L);
+        update.setWarningLevel("AMBER");
+        update.setContentHash("revision-b");
+
+        try (ReplayScope scope = new ReplayScope().open()) {
+            assertThat(warningService.replayWarnings(List.of(warning))).hasSize(1);
+            // compared with the payload replayed before, not with the live table
+            assertThat(warningService.replayWarnings(List.of(warning))).isEmpty();
+            assertThat(warningService.replayWarnings(List.of(update))).hasSize(1);
+        }
+
+        assertThat(warningMapper.testWarningExistence(1L)).isFalse();
+        assertThat(jdbcTemplate.queryForObject(
+                "select warning_level from replay.weather_warnings where warning_id = 1", String.class))
+                .isEqualTo("AMBER");
+        assertThat(jdbcTemplate.queryForObject(
+                "select count(*) from replay.weather_warning_pieces where warning_piece_warning_id = 1", Long.class))
+                .isPositive();
+        assertThat(jdbcTemplate.queryForObject("select count(*) from fanouts where fanout_warning_id = 1", Long.class)).isZero();
+
+        // only within a replay
+        assertThatThrownBy(() -> warningService.replayWarnings(List.of(warning)))
+                .isInstanceOf(SpExceptions.SystemException.class);
+    }
+
     @Test
     @Transactional
     void testInsertWarning() {
@@ -198,6 +243,110 @@ public class WarningServiceTest {
         assertThat(inserted).isEqualTo(1);
     }
 
+    private List<Long> regionIdsFromPieces(Geometry geometry) {
+        return warningMapper.selectIntersectingRegionsGivenGeometry(geometry).stream()
+                .map(region -> ((Number) region.get("id")).longValue())
+                .toList();
+    }
+
+    @Test
+    void testRegionPiecesGiveTheSameRegionsAsWholeAreas() {
+        assertThat(jdbcTemplate.queryForObject("select count(*) from uk_region_pieces", Long.class))
+                .isGreaterThan(jdbcTemplate.queryForObject("select count(*) from uk_regions", Long.class));
+        List<Asset> assets = assetService.getAssets(null, null, null, null);
+        assertThat(assets).hasSize(53);
+        for (Asset asset : assets) {
+            for (Geometry geometry : List.of(asset.getLocationGeometry(), asset.getLocationCentroid())) {
+                assertThat(regionIdsFromPieces(geometry))
+                        .isEqualTo(jdbcTemplate.queryForList(WHOLE_REGIONS, Long.class, geometry.toText()));
+            }
+        }
+    }
+
+    @Test
+    @Transactional
+    void testRegionPiecesFollowAreaUpdates() {
+        Map<String, String> region = new HashMap<>();
+        region.put("name", "Test Region");
+        region.put("area", "{\"type\":\"MultiPolygon\",\"coordinates\":[[[[10,10],[10,11],[11,11],[11,10],[10,10]]]]}");
+        assertThat(warningService.insertUkRegion(region)).isEqualTo(1);
+        Long id = jdbcTemplate.queryForObject(
+                "select uk_region_row_id from uk_regions where uk_region_name = 'Test Region'", Long.class);
+        Geometry before = GeometryTool.fromGeoJson("{\"type\":\"Point\",\"coordinates\":[10.5,10.5]}");
+        Geometry after = GeometryTool.fromGeoJson("{\"type\":\"Point\",\"coordinates\":[20.5,20.5]}");
+        assertThat(regionIdsFromPieces(before)).containsExactly(id);
+        assertThat(regionIdsFromPieces(after)).isEmpty();
+
+        jdbcTemplate.update("update uk_regions " +
+                "set uk_region_area = ST_Multi(ST_GeomFromText('POLYGON((20 20, 20 21, 21 21, 21 20, 20 20))', 4326)) " +
+                "where uk_region_row_id = ?", id);
+
+        assertThat(regionIdsFromPieces(before)).isEmpty();
+        assertThat(regionIdsFromPieces(after)).containsExactly(id);
+        assertThat(jdbcTemplate.queryForObject(
+                "select count(*) from uk_region_pieces where uk_region_piece_region_row_id = ?", Long.class, id))
+                .isEqualTo(1L);
+    }
+
+    /**
+     * The region of every mock asset centroid looked up against the whole region areas and against their pieces.
+     * Run with {@code mvn test -Dtest=WarningServiceTest#benchmarkRegionPieces -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkRegionPieces() {
+        List<Asset> assets = assetService.getAssets(null, null, null, null);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long whole = 0;
+            for (Asset asset : assets) {
+                whole += jdbcTemplate.queryForList(WHOLE_REGIONS, Long.class, asset.getLocationCentroid().toText()).size();
+            }
+            long wholeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long pieces = 0;
+            for (Asset asset : assets) {
+                pieces += regionIdsFromPieces(asset.getLocationCentroid()).size();
+            }
+            long pieceNanos = System.nanoTime() - start;
+
+            assertThat(pieces).isEqualTo(whole);
+            System.out.printf("%d assets: whole regions %d us per lookup, region pieces %d us per lookup%n",
+                    assets.size(), wholeNanos / 1000 / assets.size(), pieceNanos / 1000 / assets.size());
+        }
+    }
+
+    /**
+     * Warnings over every mock asset looked up with the asset_warning_hits join, against the in-memory index.
+     * Run with {@code mvn test -Dtest=WarningServiceTest#benchmarkIntersectingWarnings -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkIntersectingWarnings() {
+        List<Asset> assets = assetService.getAssets(null, null, null, null);
+        assertThat(assets).isNotEmpty();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long sql = 0;
+            for (Asset asset : assets) {
+                sql += warningService.getWarningsIntersectingWithGivenAsset(asset.getId()).size();
+            }
+            long sqlNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long indexed = 0;
+            for (Asset asset : assets) {
+                indexed += warningService.getWarningsIntersectingWithGivenGeometry(asset.getLocationGeometry()).size();
+            }
+            long indexNanos = System.nanoTime() - start;
+
+            assertThat(indexed).isEqualTo(sql);
+            System.out.printf("%d assets: sql %d us per lookup, index %d us per lookup%n",
+                    assets.size(), sqlNanos / 1000 / assets.size(), indexNanos / 1000 / assets.size());
+        }
+    }
+
     private Warning createTestWarning(Long id) {
         Warning warning = new Warning();
         warning.setId(id);
@@ -0,0 +1,57 @@
+package uk.ac.bristol.util;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+import uk.ac.bristol.pojo.Asset;
+import uk.ac.bristol.pojo.Warning;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeometryToolTest {
+
+    private static final String multiPolygon = "{\"type\":\"MultiPolygon\",\"coordinates\":[[[[-1.0,51.0],[-1.0,52.0],[0.0,52.0],[0.0,51.0],[-1.0,51.0]]]]}";
+
+    @Test
+    public void testWKBRoundTrip() {
+        Geometry geometry = GeometryTool.fromGeoJson(multiPolygon);
+        Geometry restored = GeometryTool.fromWKB(GeometryTool.toWKB(geometry));
+        assertEquals(GeometryTool.SRID, restored.getSRID());
+        assertTrue(geometry.equalsExact(restored));
+        assertTrue(geometry.equalsExact(GeometryTool.fromGeoJson(GeometryTool.toGeoJson(restored))));
+    }
+
+    @Test
+    public void testInvalidGeoJson() {
+        assertThrows(IllegalArgumentException.class, () -> GeometryTool.fromGeoJson("{\"type\":\"MultiPolygon\"}"));
+    }
+
+    @Test
+    public void testWarningAreaConversions() {
+        Warning warning = new Warning();
+        warning.setAreaAsJson(multiPolygon);
+        Geometry geometry = warning.getAreaGeometry();
+        assertEquals("MultiPolygon", geometry.getGeometryType());
+
+        // a warning read from the database only carries the geometry
+        Warning loaded = new Warning();
+        loaded.setAreaGeometry(GeometryTool.fromWKB(GeometryTool.toWKB(geometry)));
+        Map<String, Object> area = loaded.getArea();
+        assertEquals("MultiPolygon", area.get("type"));
+        assertTrue(geometry.equalsExact(GeometryTool.fromGeoJson(loaded.getAreaAsJson())));
+    }
+
+    @Test
+    public void testAssetLocationConversions() {
+        Asset asset = new Asset();
+        asset.setLocationGeometry(GeometryTool.fromGeoJson(multiPolygon));
+        assertEquals("MultiPolygon", asset.getLocation().get("type"));
+        assertEquals(-0.5, asset.getLocationCentroid().getX(), 1e-9);
+        assertEquals(51.5, asset.getLocationCentroid().getY(), 1e-9);
+
+        asset.setLocationAsJson((String) null);
+        assertTrue(asset.getLocationGeometry().isEmpty());
+        assertNull(asset.getLocationCentroid());
+    }
+}
@@ -0,0 +1,46 @@
+package uk.ac.bristol.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineMetricsTest {
+
+    @AfterEach
+    public void tearDown() {
+        PipelineMetrics.reset();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRecordAndSnapshot() {
+        PipelineMetrics.reset();
+        long start = PipelineMetrics.start();
+        PipelineMetrics.record(PipelineMetrics.PARSE, start, 10);
+        PipelineMetrics.record(PipelineMetrics.PARSE, start - 2_000_000, 5);
+        PipelineMetrics.record(PipelineMetrics.NOTIFY, start, 1);
+
+        Map<String, Object> snapshot = PipelineMetrics.snapshot();
+        assertEquals(2, snapshot.size());
+        // stages are reported in pipeline order
+        assertEquals(PipelineMetrics.PARSE, snapshot.keySet().iterator().next());
+
+        Map<String, Object> parse = (Map<String, Object>) snapshot.get(PipelineMetrics.PARSE);
+        assertEquals(2L, parse.get("calls"));
+        assertEquals(15L, parse.get("items"));
+        assertTrue((Long) parse.get("maxMicros") >= 2000L);
+        assertTrue((Long) parse.get("p99Micros") >= (Long) parse.get("p50Micros"));
+        // bucket upper bounds never underestimate
+        assertTrue((Long) parse.get("p99Micros") >= 2000L);
+    }
+
+    @Test
+    public void testReset() {
+        PipelineMetrics.record(PipelineMetrics.STORE, PipelineMetrics.start(), 1);
+        PipelineMetrics.reset();
+        assertTrue(PipelineMetrics.snapshot().isEmpty());
+    }
+}
@@ -0,0 +1,52 @@
+package uk.ac.bristol.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayScopeTest {
+
+    @AfterEach
+    public void tearDown() {
+        PipelineMetrics.reset();
+    }
+
+    @Test
+    public void testScopeIsBoundToItsThread() throws InterruptedException {
+        ReplayScope scope = new ReplayScope().open();
+        try {
+            assertSame(scope, ReplayScope.current());
+            scope.deliver("email");
+            scope.deliver("email");
+            PipelineMetrics.record(PipelineMetrics.STORE, PipelineMetrics.start(), 3);
+
+            // another thread, like the live crawler, is not in the replay
+            Thread live = new Thread(() -> {
+                assertNull(ReplayScope.current());
+                PipelineMetrics.record(PipelineMetrics.PARSE, PipelineMetrics.start(), 1);
+            });
+            live.start();
+            live.join();
+        } finally {
+            scope.close();
+        }
+
+        assertNull(ReplayScope.current());
+        assertEquals(Map.of("email", 2L), scope.getDeliveredNotifications());
+        assertEquals(1, scope.getMetrics().size());
+        assertTrue(scope.getMetrics().containsKey(PipelineMetrics.STORE));
+        assertEquals(1, PipelineMetrics.snapshot().size());
+        assertTrue(PipelineMetrics.snapshot().containsKey(PipelineMetrics.PARSE));
+    }
+
+    @Test
+    public void testScopesDoNotNest() {
+        try (ReplayScope ignored = new ReplayScope().open()) {
+            assertThrows(IllegalStateException.class, () -> new ReplayScope().open());
+        }
+        assertNull(ReplayScope.current());
+    }
+}
@@ -0,0 +1,157 @@
+package uk.ac.bristol.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import uk.ac.bristol.pojo.Asset;
+import uk.ac.bristol.pojo.User;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TemplateRendererTest {
+
+    private static final String BODY = "<h3>Dear {{contact_name}}:</h3><p></p><img src=\"https://s3.bmp.ovh/imgs/2025/07/22/e8f6d4e43207e112.png\" loading=\"lazy\" style=\"display: block; height: auto; margin: 1.5rem 0; max-width: 100%; max-height: 100%;\"><p><br></p><p>Protect your {{asset_model}} in {{post_town}}. If it sent by SMS, keep it short. If it is sent by email, insert helpful images and links.</p><p><br><a rel=\"noopener noreferrer nofollow\" href=\"https://www.google.com\" style=\"color: #409eff; text-decoration: underline; font-weight: bold;\"><strong> Click This Link</strong></a></p>";
+
+    @AfterEach
+    public void tearDown() {
+        // the registry is global, variables registered by a test must not leak into the others
+        TemplateRenderer.unregister("asset_status");
+        TemplateRenderer.unregister("asset_model");
+    }
+
+    private static User user() {
+        User user = new User();
+        user.setName("Alice");
+        user.setAddress(Map.of("city", "Bristol"));
+        return user;
+    }
+
+    private static Asset asset() {
+        Asset asset = new Asset();
+        asset.setName("Reservoir 7");
+        return asset;
+    }
+
+    // what formatNotification did before templates were compiled
+    private static String replaceChain(String content, User user, Asset asset) {
+        return content
+                .replace("{{asset_model}}", asset.getName())
+                .replace("{{contact_name}}", user.getName())
+                .replace("{{post_town}}", user.getAddress().get("city"));
+    }
+
+    @Test
+    public void testRenderMatchesReplace() {
+        for (String source : new String[]{BODY, "", "no variables", "{{asset_model}}", "{{ contact_name }}{{post_town}}!", "{{asset_model", "a }} b {{"}) {
+            assertEquals(replaceChain(source.replace("{{ contact_name }}", "{{contact_name}}"), user(), asset()),
+                    TemplateRenderer.compile(source).render(user(), asset()));
+        }
+    }
+
+    @Test
+    public void testRenderAppendsToBuffer() {
+        StringBuilder out = new StringBuilder("> ");
+        TemplateRenderer.compile("{{contact_name}}, {{asset_model}}").renderTo(out, user(), asset());
+        assertEquals("> Alice, Reservoir 7", out.toString());
+    }
+
+    @Test
+    public void testNullValuesRenderEmpty() {
+        User user = new User();
+        assertEquals("Dear , ", TemplateRenderer.compile("Dear {{contact_name}}, {{post_town}}").render(user, asset()));
+        assertEquals("", TemplateRenderer.compile(null).render(user, asset()));
+    }
+
+    @Test
+    public void testUnknownVariableIsRejectedAtCompileTime() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> TemplateRenderer.compile("Check your {{asset-model}} and {{asset_model}}"));
+        assertTrue(e.getMessage().contains("asset-model"));
+        assertEquals("Check your {{asset-model}} and Reservoir 7",
+                TemplateRenderer.compile("Check your {{asset-model}} and {{asset_model}}", false).render(user(), asset()));
+    }
+
+    @Test
+    public void testRegisteredVariable() {
+        TemplateRenderer.register("asset_status", (user, asset) -> asset.getStatus());
+        Asset asset = asset();
+        asset.setStatus("inactive");
+        assertEquals("status: inactive", TemplateRenderer.compile("status: {{asset_status}}").render(user(), asset));
+        assertTrue(TemplateRenderer.getVariableNames().contains("asset_status"));
+    }
+
+    @Test
+    public void testUnregisteredVariable() {
+        TemplateRenderer.register("asset_status", (user, asset) -> asset.getStatus());
+        TemplateRenderer.register("asset_model", (user, asset) -> "Tank");
+        assertFalse(TemplateRenderer.isBuiltIn("asset_model"));
+
+        TemplateRenderer.unregister("asset_status");
+        TemplateRenderer.unregister("asset_model");
+
+        assertThrows(IllegalArgumentException.class, () -> TemplateRenderer.compile("status: {{asset_status}}"));
+        assertTrue(TemplateRenderer.isBuiltIn("asset_model"));
+        assertEquals("Reservoir 7", TemplateRenderer.compile("{{asset_model}}").render(user(), asset()));
+    }
+
+    @Test
+    public void testSegments() {
+        TemplateRenderer.Compiled compiled = TemplateRenderer.compile("Dear {{ contact_name }}, {{asset-model}} and {{asset_model}}.", false);
+        assertArrayEquals(new String[]{"Dear ", ", {{asset-model}} and ", "."}, compiled.getLiterals());
+        assertArrayEquals(new String[]{"contact_name", "asset_model"}, compiled.getVariableNames());
+        assertTrue(TemplateRenderer.isBuiltIn("post_town"));
+        assertFalse(TemplateRenderer.isBuiltIn("asset-model"));
+    }
+
+    /**
+     * Rendering one asset with three chained String.replace calls against the compiled template, for the mock
+     * template body and for bodies of about 4 KB and 32 KB with the same placeholder density.
+     * Run with {@code mvn test -Dtest=TemplateRendererTest -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkRender() {
+        User user = user();
+        Asset asset = asset();
+        for (int copies : new int[]{1, 6, 48}) {
+            String source = BODY.repeat(copies);
+            TemplateRenderer.Compiled compiled = TemplateRenderer.compile(source);
+            StringBuilder buffer = new StringBuilder();
+            int iterations = 2_000_000 / copies;
+            for (int i = 0; i < iterations / 10; i++) {
+                replaceChain(source, user, asset);
+                buffer.setLength(0);
+                compiled.renderTo(buffer, user, asset);
+            }
+            long[] replace = measure(() -> replaceChain(source, user, asset).length(), iterations);
+            long[] render = measure(() -> {
+                buffer.setLength(0);
+                return compiled.renderTo(buffer, user, asset).length();
+            }, iterations);
+            System.out.printf("template of %d chars: String.replace x3 %d ns/op %d B/op, compiled %d ns/op %d B/op%n",
+                    source.length(), replace[0], replace[1], render[0], render[1]);
+        }
+    }
+
+    private interface Task {
+        int run();
+    }
+
+    private static long[] measure(Task task, int iterations) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = bean.getThreadAllocatedBytes(threadId);
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = bean.getThreadAllocatedBytes(threadId) - allocated;
+        assertTrue(sink > 0);
+        return new long[]{elapsed / iterations, allocated / iterations};
+    }
+}
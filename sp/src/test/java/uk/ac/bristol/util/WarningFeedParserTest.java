@@ -0,0 +1,130 @@
+package uk.ac.bristol.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+import uk.ac.bristol.pojo.Warning;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarningFeedParserTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static byte[] readSample() throws IOException {
+        try (InputStream in = new ClassPathResource("data/geojson-sample.json").getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testParseMatchesFeedProperties() throws IOException {
+        byte[] sample = readSample();
+        List<Warning> warnings = WarningFeedParser.parse(new ByteArrayInputStream(sample));
+        Warning.FeatureCollection collection = objectMapper.readValue(sample, Warning.FeatureCollection.class);
+
+        assertEquals(collection.features.size(), warnings.size());
+        for (int i = 0; i < warnings.size(); i++) {
+            Map<String, Object> properties = collection.features.get(i).properties;
+            Warning warning = warnings.get(i);
+            assertEquals(((Number) properties.get("OBJECTID")).longValue(), warning.getId());
+            assertEquals(properties.get("weathertype"), warning.getWeatherType());
+            assertEquals(properties.get("warninglevel"), warning.getWarningLevel());
+            assertEquals(Instant.ofEpochMilli(((Number) properties.get("validtodate")).longValue()), warning.getValidTo());
+            assertEquals(properties.get("warningUpdateDescription"), warning.getWarningUpdateDescription());
+            assertNotNull(warning.getAreaGeometry());
+            assertTrue(warning.getAreaGeometry().isValid());
+            assertEquals(4326, warning.getAreaGeometry().getSRID());
+            assertEquals(collection.features.get(i).geometry.get("type"), warning.getArea().get("type"));
+            assertEquals(64, warning.getContentHash().length());
+        }
+    }
+
+    @Test
+    public void testContentHashIgnoresMetadataOnlyChanges() throws IOException {
+        String sample = new String(readSample(), StandardCharsets.UTF_8);
+        List<Warning> before = WarningFeedParser.parse(sample);
+        List<Warning> after = WarningFeedParser.parse(sample.replaceFirst("\"issuedDate\"\\s*:\\s*\\d+", "\"issuedDate\": 1"));
+        assertEquals(before.get(0).getContentHash(), after.get(0).getContentHash());
+
+        List<Warning> changed = WarningFeedParser.parse(sample.replaceFirst("\"warninglevel\"\\s*:\\s*\"[A-Z]+\"", "\"warninglevel\": \"RED\""));
+        assertNotEquals(before.get(0).getContentHash(), changed.get(0).getContentHash());
+    }
+
+    @Test
+    public void testParseRejectsFeatureWithoutId() {
+        String feed = "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"properties\":{},\"geometry\":null}]}";
+        assertThrows(IOException.class, () -> WarningFeedParser.parse(feed));
+    }
+
+    /**
+     * Compares the streaming parser with the previous tree-binding parser, i.e. binding the whole feed into
+     * FeatureCollection maps and serialising each geometry back to JSON for persistence.
+     * Run with {@code mvn test -Dtest=WarningFeedParserTest -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkAgainstTreeBinding() throws IOException {
+        List<byte[]> feeds = new ArrayList<>();
+        feeds.add(readSample());
+        Path mockWarning = Path.of("..", "mock_warning.json");
+        if (Files.exists(mockWarning)) {
+            feeds.add(Files.readAllBytes(mockWarning));
+        }
+
+        for (byte[] feed : feeds) {
+            int iterations = 2000;
+            for (int i = 0; i < iterations; i++) {
+                treeBinding(feed);
+                streaming(feed);
+            }
+            long[] tree = measure(() -> treeBinding(feed), iterations);
+            long[] stream = measure(() -> streaming(feed), iterations);
+            System.out.printf("feed of %d bytes: tree binding %d ns/op %d B/op, streaming %d ns/op %d B/op%n",
+                    feed.length, tree[0], tree[1], stream[0], stream[1]);
+        }
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private static long[] measure(Task task, int iterations) throws IOException {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = bean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = bean.getThreadAllocatedBytes(threadId) - allocated;
+        return new long[]{elapsed / iterations, allocated / iterations};
+    }
+
+    private static void treeBinding(byte[] feed) throws IOException {
+        String GeoJSON = new String(feed, StandardCharsets.UTF_8);
+        for (Warning.Feature feature : objectMapper.readValue(GeoJSON, Warning.FeatureCollection.class).features) {
+            new ObjectMapper().writeValueAsString(feature.geometry);
+        }
+    }
+
+    private static void streaming(byte[] feed) throws IOException {
+        for (Warning warning : WarningFeedParser.parse(new ByteArrayInputStream(feed))) {
+            warning.getAreaAsJson();
+        }
+    }
+}